@@ -0,0 +1,78 @@
+package se233.audioconverter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.ConversionPreset;
+import se233.audioconverter.model.ConversionSettings;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Model objects built for every file added and every job queued: AudioFile
+ * construction (which stats the file) and settings resolution from a preset.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+    private Path file;
+
+    @State(Scope.Benchmark)
+    public static class Preset {
+        @Param({"PODCAST_STANDARD", "MUSIC_HIGH_QUALITY", "MUSIC_VBR_QUALITY", "ARCHIVE_LOSSLESS"})
+        public String preset;
+
+        ConversionPreset conversionPreset;
+        ConversionSettings settings;
+
+        @Setup
+        public void setUp() {
+            conversionPreset = ConversionPreset.valueOf(preset);
+            settings = ConversionSettings.fromPreset(conversionPreset);
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        file = Files.createTempFile("model-bench", ".wav");
+        Files.write(file, ProbeBenchmark.silentWav(44100, 2, 1));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public AudioFile audioFile() {
+        return new AudioFile(file.toString());
+    }
+
+    @Benchmark
+    public int effectiveBitrate(Preset preset) {
+        return preset.settings.getEffectiveBitrate();
+    }
+
+    @Benchmark
+    public ConversionSettings loadFromPreset(Preset preset) {
+        ConversionSettings loaded = new ConversionSettings();
+        loaded.loadFromPreset(preset.conversionPreset);
+        return loaded;
+    }
+}
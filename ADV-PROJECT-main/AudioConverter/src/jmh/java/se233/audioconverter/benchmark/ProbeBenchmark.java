@@ -0,0 +1,94 @@
+package se233.audioconverter.benchmark;
+
+import net.bramp.ffmpeg.probe.FFmpegProbeResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se233.audioconverter.model.AudioMetadata;
+import se233.audioconverter.service.AudioHeaderReader;
+import se233.audioconverter.service.FFmpegService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process header parsing versus one ffprobe process per file.
+ * Pass -p inputFile=/path/to/file.flac to measure a real file; by default a
+ * 10 second WAV is generated. The ffprobe benchmark needs ffprobe installed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProbeBenchmark {
+    @Param("")
+    public String inputFile;
+
+    private Path path;
+    private Path generated;
+    private FFmpegService ffmpegService;
+
+    @Setup
+    public void setUp() throws Exception {
+        if (inputFile.isEmpty()) {
+            generated = Files.createTempFile("probe-bench", ".wav");
+            Files.write(generated, silentWav(44100, 2, 10));
+            path = generated;
+        } else {
+            path = Paths.get(inputFile);
+        }
+        try {
+            ffmpegService = new FFmpegService();
+        } catch (IOException e) {
+            ffmpegService = null; // headerReader can still run without ffmpeg
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (generated != null) {
+            Files.deleteIfExists(generated);
+        }
+    }
+
+    @Benchmark
+    public AudioMetadata headerReader() {
+        return AudioHeaderReader.read(path);
+    }
+
+    @Benchmark
+    public FFmpegProbeResult ffprobe() throws Exception {
+        if (ffmpegService == null) {
+            throw new IllegalStateException("ffprobe is not available");
+        }
+        return ffmpegService.probeFile(path.toString());
+    }
+
+    static byte[] silentWav(int sampleRate, int channels, int seconds) {
+        int dataSize = sampleRate * channels * 2 * seconds;
+        ByteBuffer wav = ByteBuffer.allocate(44 + dataSize).order(ByteOrder.LITTLE_ENDIAN);
+        wav.put("RIFF".getBytes()).putInt(36 + dataSize).put("WAVE".getBytes());
+        wav.put("fmt ".getBytes()).putInt(16)
+                .putShort((short) 1).putShort((short) channels)
+                .putInt(sampleRate).putInt(sampleRate * channels * 2)
+                .putShort((short) (channels * 2)).putShort((short) 16);
+        wav.put("data".getBytes()).putInt(dataSize);
+        return wav.array();
+    }
+}
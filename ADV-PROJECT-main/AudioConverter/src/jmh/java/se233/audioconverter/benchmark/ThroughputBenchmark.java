@@ -0,0 +1,357 @@
+package se233.audioconverter.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import se233.audioconverter.controller.AudioConversionTask;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.ConversionPreset;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.service.ConversionMetrics;
+import se233.audioconverter.service.ConversionScheduler;
+import se233.audioconverter.service.FFmpegService;
+import se233.audioconverter.service.FFmpegToolchain;
+import se233.audioconverter.service.TimingSnapshot;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end batch throughput: the real AudioConversionTask pipeline on a
+ * ConversionScheduler, over corpora synthesized with ffmpeg's lavfi sources so the
+ * numbers do not depend on anyone's music. Every preset runs at every concurrency
+ * level against every corpus; each run reports files/s, audio seconds/s, average
+ * system CPU use and p50/p99 per-file latency, printed as a table and written as JSON.
+ *
+ * mvn -Pbenchmark test-compile exec:exec@throughput [-Dthroughput.args="--jobs 1,4,auto"]
+ *
+ * Options: --corpus-dir DIR (generated once, then reused), --corpora short,long,
+ * --presets NAME,..., --jobs N,...|auto, --short-count N, --long-count N,
+ * --long-seconds N, --output FILE. Needs a real ffmpeg with mp3 and aac encoders.
+ */
+public class ThroughputBenchmark {
+    private static final String[] FORMATS = {"mp3", "wav", "m4a", "flac"};
+    private static final long CPU_SAMPLE_MS = 250;
+
+    private Path corpusDir = Paths.get("target", "jmh", "corpus");
+    private Path output = Paths.get("target", "jmh", "throughput-result.json");
+    private List<String> corpora = List.of("short", "long");
+    private List<ConversionPreset> presets = Arrays.stream(ConversionPreset.values())
+            .filter(preset -> preset != ConversionPreset.NONE)
+            .collect(Collectors.toList());
+    private List<Integer> jobLevels;
+    private int shortCount = 48;
+    private int longCount = 3;
+    private int longSeconds = 600;
+
+    public static void main(String[] args) throws Exception {
+        ThroughputBenchmark benchmark = new ThroughputBenchmark();
+        benchmark.parseArguments(args);
+        benchmark.run();
+    }
+
+    private void parseArguments(String[] args) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        jobLevels = Stream.of(1, Math.max(1, cores / 2), cores, cores * 2, 0)
+                .distinct()
+                .collect(Collectors.toList());
+
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            switch (args[i]) {
+                case "--corpus-dir":
+                    corpusDir = Paths.get(value);
+                    break;
+                case "--corpora":
+                    corpora = Arrays.asList(value.split(","));
+                    break;
+                case "--presets":
+                    presets = Arrays.stream(value.split(","))
+                            .map(name -> ConversionPreset.valueOf(name.trim().toUpperCase()))
+                            .collect(Collectors.toList());
+                    break;
+                case "--jobs":
+                    // "auto" is the adaptive scheduler
+                    jobLevels = Arrays.stream(value.split(","))
+                            .map(level -> level.equals("auto") ? 0 : Integer.parseInt(level))
+                            .collect(Collectors.toList());
+                    break;
+                case "--short-count":
+                    shortCount = Integer.parseInt(value);
+                    break;
+                case "--long-count":
+                    longCount = Integer.parseInt(value);
+                    break;
+                case "--long-seconds":
+                    longSeconds = Integer.parseInt(value);
+                    break;
+                case "--output":
+                    output = Paths.get(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option: " + args[i]);
+            }
+            i++;
+        }
+    }
+
+    private void run() throws Exception {
+        String ffmpeg = FFmpegToolchain.getInstance().getFfmpegPath();
+        List<Result> results = new ArrayList<>();
+
+        for (String corpus : corpora) {
+            List<Path> files = generateCorpus(ffmpeg, corpus);
+            // Warm the probe cache so the first run is not the only one paying for it
+            FFmpegService ffmpegService = new FFmpegService();
+            for (Path file : files) {
+                ffmpegService.getMetadata(file.toString());
+            }
+            ffmpegService.flushProbeCache();
+            for (ConversionPreset preset : presets) {
+                for (int jobs : jobLevels) {
+                    Result result = runBatch(corpus, files, preset, jobs);
+                    results.add(result);
+                    System.out.println(result);
+                }
+            }
+        }
+
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            gson.toJson(results, writer);
+        }
+        System.out.println("Results written to " + output.toAbsolutePath());
+    }
+
+    /**
+     * Synthesizes the corpus once; files already present are kept, so repeated runs
+     * compare the same inputs. Formats rotate through mp3/wav/m4a/flac and the
+     * signal alternates between tones and pink noise so encoders see both.
+     */
+    private List<Path> generateCorpus(String ffmpeg, String corpus) throws Exception {
+        int count;
+        if (corpus.equals("short")) {
+            count = shortCount;
+        } else if (corpus.equals("long")) {
+            count = longCount;
+        } else {
+            throw new IllegalArgumentException("unknown corpus: " + corpus);
+        }
+        Path dir = corpusDir.resolve(corpus);
+        Files.createDirectories(dir);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<Path>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                int index = i;
+                int seconds = corpus.equals("short") ? 5 + index % 11 : longSeconds;
+                Path file = dir.resolve(String.format("%s-%03d.%s", corpus, index, FORMATS[index % FORMATS.length]));
+                futures.add(pool.submit(() -> synthesize(ffmpeg, file, index, seconds)));
+            }
+            List<Path> files = new ArrayList<>();
+            for (Future<Path> future : futures) {
+                files.add(future.get());
+            }
+            return files;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Path synthesize(String ffmpeg, Path file, int index, int seconds)
+            throws IOException, InterruptedException {
+        if (Files.isRegularFile(file) && Files.size(file) > 0) {
+            return file;
+        }
+        String source = index % 2 == 0
+                ? "sine=frequency=" + (220 + index * 7) + ":sample_rate=44100"
+                : "anoisesrc=color=pink:seed=" + index + ":sample_rate=44100";
+        Process process = new ProcessBuilder(ffmpeg, "-y", "-v", "error",
+                "-f", "lavfi", "-i", source, "-t", String.valueOf(seconds),
+                "-ac", "2", "-ar", "44100", file.toString())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        if (process.waitFor() != 0) {
+            throw new IOException("ffmpeg could not synthesize " + file);
+        }
+        return file;
+    }
+
+    private Result runBatch(String corpus, List<Path> files, ConversionPreset preset, int jobs)
+            throws Exception {
+        Path outputDir = Files.createTempDirectory("throughput-" + preset.name().toLowerCase());
+        FFmpegService ffmpegService = new FFmpegService();
+        ffmpegService.setSkipUpToDate(false);
+        ConversionSettings settings = ConversionSettings.fromPreset(preset);
+
+        List<AudioConversionTask> tasks = new ArrayList<>();
+        for (Path file : files) {
+            tasks.add(new AudioConversionTask(new AudioFile(file.toString()), settings,
+                    outputDir.toString(), ffmpegService));
+        }
+
+        ConversionMetrics metrics = ConversionMetrics.getInstance();
+        metrics.reset();
+        ConversionScheduler scheduler = jobs > 0 ? ConversionScheduler.fixed(jobs) : new ConversionScheduler();
+        // Without the encoded seconds the adaptive scheduler never resizes
+        for (AudioConversionTask task : tasks) {
+            task.setProgressCallback(reportProcessed(task, scheduler));
+        }
+        CpuSampler cpu = new CpuSampler();
+        long start = System.nanoTime();
+        List<Future<Void>> futures;
+        try {
+            futures = scheduler.invokeAll(tasks);
+        } finally {
+            scheduler.shutdown();
+            cpu.stop();
+        }
+        double wallSeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        int failed = 0;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                failed++;
+            }
+        }
+        double audioSeconds = tasks.stream().mapToDouble(AudioConversionTask::getDuration).sum();
+        TimingSnapshot latency = metrics.getJobTime();
+        deleteRecursively(outputDir);
+
+        Result result = new Result();
+        result.corpus = corpus;
+        result.preset = preset.name();
+        result.jobs = jobs > 0 ? String.valueOf(jobs) : "auto";
+        result.files = files.size();
+        result.failed = failed;
+        result.wallSeconds = wallSeconds;
+        result.audioSeconds = audioSeconds;
+        result.filesPerSecond = files.size() / wallSeconds;
+        result.audioSecondsPerSecond = audioSeconds / wallSeconds;
+        result.cpuUtilization = cpu.average();
+        result.p50Millis = latency.getP50Millis();
+        result.p99Millis = latency.getP99Millis();
+        return result;
+    }
+
+    /**
+     * Feeds the audio seconds a task has encoded to the scheduler, as the CLI does.
+     */
+    private static AudioConversionTask.ProgressCallback reportProcessed(AudioConversionTask task,
+                                                                        ConversionScheduler scheduler) {
+        return new AudioConversionTask.ProgressCallback() {
+            private double reportedSeconds;
+
+            @Override
+            public void onProgress(double percentage, String message) {
+                double doneSeconds = task.getDuration() * percentage / 100.0;
+                scheduler.recordProcessed(doneSeconds - reportedSeconds);
+                reportedSeconds = Math.max(reportedSeconds, doneSeconds);
+            }
+
+            @Override
+            public void onStatusChange(AudioFile.ConversionStatus status) {
+            }
+        };
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Averages whole-machine CPU load while a batch runs; the ffmpeg children do the
+     * work, so the JVM's own CPU time would miss most of it.
+     */
+    private static class CpuSampler {
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cpu-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final DoubleAdder total = new DoubleAdder();
+        private final LongAdder samples = new LongAdder();
+
+        CpuSampler() {
+            // Read as an attribute: com.sun.management is not visible to this module
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            timer.scheduleAtFixedRate(() -> {
+                try {
+                    double load = ((Number) server.getAttribute(
+                            new ObjectName(ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME), "CpuLoad")).doubleValue();
+                    if (load >= 0) {
+                        total.add(load);
+                        samples.increment();
+                    }
+                } catch (JMException | ClassCastException e) {
+                    // Not reported on this platform
+                }
+            }, CPU_SAMPLE_MS, CPU_SAMPLE_MS, TimeUnit.MILLISECONDS);
+        }
+
+        void stop() {
+            timer.shutdownNow();
+        }
+
+        /**
+         * Fraction of all cores in use, or -1 if the platform does not report it.
+         */
+        double average() {
+            long count = samples.sum();
+            return count > 0 ? total.sum() / count : -1;
+        }
+    }
+
+    static class Result {
+        String corpus;
+        String preset;
+        String jobs;
+        int files;
+        int failed;
+        double wallSeconds;
+        double audioSeconds;
+        double filesPerSecond;
+        double audioSecondsPerSecond;
+        double cpuUtilization;
+        double p50Millis;
+        double p99Millis;
+
+        @Override
+        public String toString() {
+            return String.format("%-6s %-20s jobs=%-4s %4d files %3d failed  %7.2f files/s  %8.1f audio-s/s  "
+                            + "cpu %5.1f%%  p50 %8.1f ms  p99 %8.1f ms",
+                    corpus, preset, jobs, files, failed, filesPerSecond, audioSecondsPerSecond,
+                    cpuUtilization * 100, p50Millis, p99Millis);
+        }
+    }
+}
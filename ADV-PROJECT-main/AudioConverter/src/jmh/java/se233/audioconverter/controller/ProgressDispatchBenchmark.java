@@ -0,0 +1,101 @@
+package se233.audioconverter.controller;
+
+import net.bramp.ffmpeg.progress.Progress;
+import net.bramp.ffmpeg.progress.ProgressListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.ConversionPreset;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.service.FFmpegProgressParser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One ffmpeg -progress block on its way to the UI: parsing the key=value lines and
+ * the task turning them into percentage and message callbacks (one per target for
+ * multi-output jobs). The callback only consumes its arguments, so this is the
+ * worker-side cost; Platform.runLater and rendering are not included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProgressDispatchBenchmark {
+    private static final String BLOCK = "bitrate= 128.0kbits/s\n"
+            + "total_size=1048576\n"
+            + "out_time_us=65300000\n"
+            + "out_time_ms=65300000\n"
+            + "out_time=00:01:05.300000\n"
+            + "dup_frames=0\n"
+            + "drop_frames=0\n"
+            + "speed=48.3x\n"
+            + "progress=continue\n";
+
+    @Param({"1", "3"})
+    public int targets;
+
+    private byte[] block;
+    private Progress progress;
+    private ProgressListener listener;
+    private FFmpegProgressParser parser;
+    private long sink;
+
+    @Setup
+    public void setUp() {
+        List<ConversionSettings> settings = new ArrayList<>();
+        for (int i = 0; i < targets; i++) {
+            settings.add(ConversionSettings.fromPreset(ConversionPreset.values()[1 + i]));
+        }
+        AudioConversionTask task = new AudioConversionTask(
+                new AudioFile("/music/library/01 - Track Title.wav"), settings, "/music/converted", null);
+        task.setProgressCallback(new AudioConversionTask.ProgressCallback() {
+            @Override
+            public void onProgress(double percentage, String message) {
+                sink += message.length();
+            }
+
+            @Override
+            public void onStatusChange(AudioFile.ConversionStatus status) {
+            }
+
+            @Override
+            public void onOutputProgress(ConversionSettings target, double percentage) {
+                sink += (long) percentage;
+            }
+        });
+
+        listener = task.progressListener(240.0);
+        parser = new FFmpegProgressParser(listener, (buffer, offset, length) -> sink += length);
+        block = BLOCK.getBytes(StandardCharsets.US_ASCII);
+        progress = new Progress();
+        progress.out_time_ns = 65_300_000_000L;
+        progress.status = Progress.Status.CONTINUE;
+    }
+
+    @Benchmark
+    public long dispatch() {
+        listener.progress(progress);
+        return sink;
+    }
+
+    @Benchmark
+    public long parseAndDispatch() {
+        parser.feed(block, 0, block.length);
+        return sink;
+    }
+}
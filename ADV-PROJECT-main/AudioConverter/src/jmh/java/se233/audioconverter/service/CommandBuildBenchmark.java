@@ -0,0 +1,70 @@
+package se233.audioconverter.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.ConversionPreset;
+import se233.audioconverter.model.ConversionSettings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-job work in FFmpegService before ffmpeg is spawned: the output options for
+ * each target (built from scratch, and from the per-digest cache of a settings
+ * snapshot) and the output file name. Lives in the service package to reach
+ * the package-private builders; neither needs ffmpeg installed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBuildBenchmark {
+    @Param({"PODCAST_STANDARD", "MUSIC_HIGH_QUALITY", "MUSIC_VBR_QUALITY", "ARCHIVE_LOSSLESS"})
+    public String preset;
+
+    private ConversionSettings settings;
+    private ConversionSettings snapshot;
+    private AudioFile audioFile;
+    private String outputPath;
+
+    @Setup
+    public void setUp() {
+        settings = ConversionSettings.fromPreset(ConversionPreset.valueOf(preset));
+        snapshot = settings.snapshot();
+        // The file does not need to exist; AudioFile only stats it
+        audioFile = new AudioFile("/music/library/Artist - Album/01 - Track Title.wav");
+        outputPath = "/music/converted";
+    }
+
+    @Benchmark
+    public List<String> outputOptions() {
+        List<String> command = new ArrayList<>();
+        FFmpegService.addOutputOptions(command, settings);
+        return command;
+    }
+
+    @Benchmark
+    public List<String> compiledOutputOptions() {
+        List<String> command = new ArrayList<>();
+        command.addAll(FFmpegService.outputOptions(snapshot));
+        return command;
+    }
+
+    @Benchmark
+    public String outputFilename() {
+        return FFmpegService.buildOutputFilename(audioFile, settings, outputPath);
+    }
+}
@@ -5,15 +5,21 @@ module se233.audioconverter {
     requires com.google.gson;
     requires org.apache.commons.lang3;
     requires org.slf4j;
+    requires java.management;
+    requires jdk.jfr;
 
     // เพิ่ม requires สำหรับ ffmpeg
     requires ffmpeg;
 
     opens se233.audioconverter to javafx.fxml;
     opens se233.audioconverter.controller to javafx.fxml;
-    opens se233.audioconverter.model to javafx.fxml;
+    opens se233.audioconverter.model to javafx.fxml, com.google.gson;
+    opens se233.audioconverter.service to com.google.gson;
+    opens se233.audioconverter.cli to com.google.gson;
 
     exports se233.audioconverter;
     exports se233.audioconverter.controller;
     exports se233.audioconverter.model;
+    // ConversionMetricsMXBean and TimingSnapshot are introspected by the JMX agent
+    exports se233.audioconverter.service to java.management;
 }
\ No newline at end of file
@@ -0,0 +1,702 @@
+package se233.audioconverter.cli;
+
+import se233.audioconverter.controller.AudioConversionTask;
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.CollisionPolicy;
+import se233.audioconverter.model.ConversionPreset;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.model.SchedulingPolicy;
+import se233.audioconverter.service.BatchJournal;
+import se233.audioconverter.service.ConversionScheduler;
+import se233.audioconverter.service.FFmpegService;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Headless batch converter for servers without a display. Uses the same FFmpegService,
+ * AudioConversionTask and ConversionScheduler as the GUI but never touches JavaFX.
+ *
+ * Every event is one JSON object per line on stdout (start, progress, done, failed,
+ * summary); usage errors and logging go to stderr. Exit code is 0 when every file
+ * converted, 1 when any failed and 2 for bad arguments.
+ *
+ * Example:
+ * java -cp target/classes:... se233.audioconverter.cli.CommandLineConverter \
+ *     --preset podcast_standard -o out/ -j 4 recordings/ "extra/*.wav"
+ *
+ * With --watch it keeps running instead and converts whatever lands in the given
+ * directories (see WatchFolderDaemon).
+ */
+public class CommandLineConverter {
+    private static final List<String> SUPPORTED_FORMATS = Arrays.asList("mp3", "wav", "m4a", "flac");
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILED = 1;
+    private static final int EXIT_USAGE = 2;
+    private static final int MAX_JOBS = 256;
+
+    private final PrintStream out;
+    private final EventLog events;
+
+    private final List<String> inputs = new ArrayList<>();
+    private final List<ConversionSettings.OutputFormat> formats = new ArrayList<>();
+    private ConversionPreset preset;
+    private Integer bitrate;
+    private Integer sampleRate;
+    private Integer channels;
+    private Integer vbrQuality;
+    private String outputDir = ".";
+    private int jobs;
+    private SchedulingPolicy order = SchedulingPolicy.LONGEST_FIRST;
+    private CollisionPolicy collision = CollisionPolicy.SUFFIX;
+    private long timeoutSeconds = -1;
+    private long stallTimeoutSeconds = -1;
+    private boolean watch;
+    private boolean force;
+    private boolean resume;
+    private long settleSeconds = WatchFolderDaemon.DEFAULT_SETTLE_SECONDS;
+
+    public CommandLineConverter(PrintStream out) {
+        this.out = out;
+        this.events = new EventLog(out);
+    }
+
+    public static void main(String[] args) {
+        System.exit(new CommandLineConverter(System.out).run(args));
+    }
+
+    public int run(String[] args) {
+        try {
+            if (!parseArguments(args)) {
+                return EXIT_OK;
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("error: " + e.getMessage());
+            System.err.println("Try --help for usage.");
+            return EXIT_USAGE;
+        }
+
+        if (resume) {
+            return runResume();
+        }
+        List<ConversionSettings> targets = buildTargets();
+        if (watch) {
+            return runWatch(targets);
+        }
+
+        List<AudioFile> files;
+        try {
+            files = expandInputs();
+        } catch (IOException e) {
+            System.err.println("error: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+        if (files.isEmpty()) {
+            System.err.println("error: no supported audio files found (" + String.join(", ", SUPPORTED_FORMATS) + ")");
+            return EXIT_USAGE;
+        }
+
+        File output = new File(outputDir);
+        if (!output.isDirectory() && !output.mkdirs()) {
+            System.err.println("error: cannot create output directory " + output);
+            return EXIT_USAGE;
+        }
+
+        FFmpegService ffmpegService = createService();
+        if (ffmpegService == null) {
+            return EXIT_FAILED;
+        }
+
+        List<BatchJournal.Interrupted> interrupted = BatchJournal.findInterrupted();
+        if (!interrupted.isEmpty()) {
+            System.err.println("note: " + interrupted.size() + " interrupted batch(es) can be continued with --resume");
+        }
+        Path sourceRoot = CollisionPolicy.commonRoot(
+                files.stream().map(AudioFile::getFilePath).collect(Collectors.toList()));
+        BatchJournal journal = null;
+        try {
+            journal = BatchJournal.create(output.getAbsolutePath(), sourceRoot, collision, targets, files);
+        } catch (IOException e) {
+            System.err.println("warning: no batch journal, this run cannot be resumed: " + e.getMessage());
+        }
+
+        ConversionScheduler scheduler = jobs > 0 ? ConversionScheduler.fixed(jobs) : new ConversionScheduler();
+        try {
+            return convert(files, targets, output.getAbsolutePath(), sourceRoot, ffmpegService, scheduler, journal);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_FAILED;
+        } finally {
+            scheduler.shutdownNow();
+            ffmpegService.flushProbeCache();
+            ffmpegService.flushManifests();
+        }
+    }
+
+    /**
+     * Continues the newest interrupted batch: files that had not completed are
+     * converted again, after removing the partial outputs they left.
+     */
+    private int runResume() {
+        List<BatchJournal.Interrupted> interrupted = BatchJournal.findInterrupted();
+        if (interrupted.isEmpty()) {
+            System.err.println("error: no interrupted batch to resume");
+            return EXIT_USAGE;
+        }
+        BatchJournal.Interrupted batch = interrupted.get(0);
+        // The rest of the batch has to land where the original run put the first part
+        collision = batch.getCollisionPolicy();
+        FFmpegService ffmpegService = createService();
+        if (ffmpegService == null) {
+            return EXIT_FAILED;
+        }
+
+        Path sourceRoot = batch.getSourceRoot();
+        List<AudioFile> remaining = new ArrayList<>();
+        for (String path : batch.getFiles()) {
+            if (!batch.isDone(path) && new File(path).isFile()) {
+                AudioFile audioFile = new AudioFile(path);
+                ffmpegService.removePartialOutputs(audioFile, batch.getTargets(),
+                        collision.outputDirectory(batch.getOutputPath(), sourceRoot, path));
+                remaining.add(audioFile);
+            }
+        }
+
+        BatchJournal journal;
+        try {
+            journal = batch.resume();
+        } catch (IOException e) {
+            System.err.println("error: " + e.getMessage());
+            return EXIT_FAILED;
+        }
+        if (remaining.isEmpty()) {
+            journal.complete();
+            System.err.println("Nothing left to resume - all " + batch.getFiles().size() + " files were completed");
+            return EXIT_OK;
+        }
+
+        ConversionScheduler scheduler = jobs > 0 ? ConversionScheduler.fixed(jobs) : new ConversionScheduler();
+        try {
+            return convert(remaining, batch.getTargets(), batch.getOutputPath(), sourceRoot,
+                    ffmpegService, scheduler, journal);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_FAILED;
+        } finally {
+            scheduler.shutdownNow();
+            ffmpegService.flushProbeCache();
+            ffmpegService.flushManifests();
+        }
+    }
+
+    /**
+     * Runs until the process is stopped, converting files as they settle in the
+     * watched directories.
+     */
+    private int runWatch(List<ConversionSettings> targets) {
+        File output = new File(outputDir);
+        if (!output.isDirectory() && !output.mkdirs()) {
+            System.err.println("error: cannot create output directory " + output);
+            return EXIT_USAGE;
+        }
+        FFmpegService ffmpegService = createService();
+        if (ffmpegService == null) {
+            return EXIT_FAILED;
+        }
+
+        List<Path> roots = new ArrayList<>();
+        for (String input : inputs) {
+            roots.add(Paths.get(input).toAbsolutePath().normalize());
+        }
+        ConversionScheduler scheduler = jobs > 0 ? ConversionScheduler.fixed(jobs) : new ConversionScheduler();
+        try {
+            new WatchFolderDaemon(roots, output.toPath().toAbsolutePath().normalize(), targets,
+                    ffmpegService, scheduler, events, settleSeconds).run();
+            return EXIT_OK;
+        } catch (IOException e) {
+            System.err.println("error: " + e.getMessage());
+            return EXIT_FAILED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_OK;
+        } finally {
+            scheduler.shutdownNow();
+            ffmpegService.flushProbeCache();
+            ffmpegService.flushManifests();
+        }
+    }
+
+    private FFmpegService createService() {
+        FFmpegService ffmpegService;
+        try {
+            ffmpegService = new FFmpegService();
+        } catch (IOException e) {
+            System.err.println("error: could not initialize FFmpeg: " + e.getMessage());
+            return null;
+        }
+        if (timeoutSeconds >= 0) {
+            ffmpegService.setJobTimeoutSeconds(timeoutSeconds);
+        }
+        if (stallTimeoutSeconds >= 0) {
+            ffmpegService.setStallTimeoutSeconds(stallTimeoutSeconds);
+        }
+        ffmpegService.setSkipUpToDate(!force);
+        ffmpegService.setCollisionPolicy(collision);
+        return ffmpegService;
+    }
+
+    private int convert(List<AudioFile> files, List<ConversionSettings> targets, String outputPath, Path sourceRoot,
+                        FFmpegService ffmpegService, ConversionScheduler scheduler, BatchJournal journal)
+            throws InterruptedException {
+        List<AudioConversionTask> tasks = new ArrayList<>();
+        for (AudioFile file : files) {
+            AudioConversionTask task = new AudioConversionTask(file, targets,
+                    collision.outputDirectory(outputPath, sourceRoot, file.getFilePath()), ffmpegService);
+            task.setJournal(journal);
+            tasks.add(task);
+        }
+
+        // Ctrl-C kills the ffmpeg children instead of leaving them running, and keeps
+        // the journal so the rest can be resumed
+        Thread cancelOnExit = new Thread(() -> {
+            if (journal != null) {
+                journal.close();
+            }
+            tasks.forEach(AudioConversionTask::cancel);
+        });
+        Runtime.getRuntime().addShutdownHook(cancelOnExit);
+
+        long batchStart = System.nanoTime();
+
+        List<Callable<Double>> probes = new ArrayList<>();
+        for (AudioConversionTask task : tasks) {
+            probes.add(task::probeDuration);
+        }
+        scheduler.invokeAll(probes);
+        List<AudioConversionTask> unique = AudioConversionTask.mergeDuplicates(tasks, scheduler);
+        List<AudioConversionTask> queue = order.order(unique,
+                task -> task.getDuration() > 0 ? task.getDuration() : task.getAudioFile().getFileSize());
+
+        Map<String, Object> start = events.event("start");
+        start.put("files", files.size());
+        start.put("duplicates", tasks.size() - unique.size());
+        start.put("targets", targets.stream().map(CommandLineConverter::describe).collect(Collectors.toList()));
+        start.put("output", outputPath);
+        start.put("concurrency", scheduler.getConcurrency());
+        events.emit(start);
+
+        CompletionService<Void> completionService = new ExecutorCompletionService<>(scheduler);
+        Map<Future<Void>, AudioConversionTask> submitted = new LinkedHashMap<>();
+        for (AudioConversionTask task : queue) {
+            task.setProgressCallback(events.progressCallback(task, scheduler::recordProcessed));
+            submitted.put(completionService.submit(task), task);
+        }
+
+        int completed = 0;
+        int skipped = 0;
+        int failed = 0;
+        int cancelled = 0;
+        double audioSeconds = 0;
+        for (int i = 0; i < submitted.size(); i++) {
+            Future<Void> future = completionService.take();
+            AudioConversionTask task = submitted.get(future);
+            Throwable error = null;
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                error = e.getCause();
+            }
+            List<AudioConversionTask> finished = new ArrayList<>();
+            finished.add(task);
+            finished.addAll(task.getDuplicates());
+            for (AudioConversionTask result : finished) {
+                // Duplicates were finished by the task itself, linking its outputs
+                Throwable resultError = result == task ? error : result.getError();
+                switch (events.result(result, resultError)) {
+                    case COMPLETED:
+                        completed++;
+                        if (result == task) {
+                            // Linked duplicates did not encode anything
+                            audioSeconds += result.getDuration();
+                        }
+                        break;
+                    case SKIPPED:
+                        skipped++;
+                        break;
+                    case CANCELLED:
+                        cancelled++;
+                        break;
+                    default:
+                        failed++;
+                }
+            }
+        }
+
+        double elapsed = (System.nanoTime() - batchStart) / 1_000_000_000.0;
+        Map<String, Object> summary = events.event("summary");
+        summary.put("completed", completed);
+        summary.put("skipped", skipped);
+        summary.put("failed", failed);
+        summary.put("cancelled", cancelled);
+        summary.put("seconds", EventLog.round(elapsed));
+        summary.put("realtimeFactor", elapsed > 0 ? EventLog.round(audioSeconds / elapsed) : 0);
+        events.emit(summary);
+        if (journal != null) {
+            journal.complete();
+        }
+
+        try {
+            Runtime.getRuntime().removeShutdownHook(cancelOnExit);
+        } catch (IllegalStateException e) {
+            // Already shutting down
+        }
+        scheduler.shutdown();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        return failed + cancelled == 0 ? EXIT_OK : EXIT_FAILED;
+    }
+
+    private boolean parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "-h":
+                case "--help":
+                    printUsage();
+                    return false;
+                case "--list-presets":
+                    for (ConversionPreset p : ConversionPreset.values()) {
+                        if (p != ConversionPreset.NONE) {
+                            out.printf("%-20s %s%n", p.name().toLowerCase(Locale.ROOT), p.getDescription());
+                        }
+                    }
+                    return false;
+                case "-p":
+                case "--preset":
+                    preset = parseEnum(ConversionPreset.class, value(args, ++i, arg), arg);
+                    break;
+                case "-f":
+                case "--format":
+                    // Several formats are encoded from one decode of each input
+                    for (String name : value(args, ++i, arg).split(",")) {
+                        formats.add(parseEnum(ConversionSettings.OutputFormat.class, name, arg));
+                    }
+                    break;
+                case "-b":
+                case "--bitrate":
+                    // Checked against each target format once all options are read
+                    bitrate = parseInt(value(args, ++i, arg), arg, 1, Integer.MAX_VALUE);
+                    break;
+                case "-r":
+                case "--sample-rate":
+                    sampleRate = parseInt(value(args, ++i, arg), arg);
+                    if (Arrays.stream(ConversionSettings.SampleRate.values()).noneMatch(r -> r.getRate() == sampleRate)) {
+                        throw new IllegalArgumentException(arg + " must be one of "
+                                + Arrays.stream(ConversionSettings.SampleRate.values())
+                                        .map(r -> String.valueOf(r.getRate()))
+                                        .collect(Collectors.joining(", "))
+                                + ", got " + sampleRate);
+                    }
+                    break;
+                case "-c":
+                case "--channels":
+                    channels = parseInt(value(args, ++i, arg), arg);
+                    if (channels != 1 && channels != 2) {
+                        throw new IllegalArgumentException(arg + " must be 1 or 2");
+                    }
+                    break;
+                case "--vbr":
+                    vbrQuality = parseInt(value(args, ++i, arg), arg, 0, 5);
+                    break;
+                case "-o":
+                case "--output":
+                    outputDir = value(args, ++i, arg);
+                    break;
+                case "-j":
+                case "--jobs":
+                    jobs = parseInt(value(args, ++i, arg), arg, 1, MAX_JOBS);
+                    break;
+                case "--order":
+                    order = parseOrder(value(args, ++i, arg));
+                    break;
+                case "--on-collision":
+                    collision = parseEnum(CollisionPolicy.class, value(args, ++i, arg), arg);
+                    break;
+                case "--timeout":
+                    // 0 turns the limit off
+                    timeoutSeconds = parseInt(value(args, ++i, arg), arg, 0, Integer.MAX_VALUE);
+                    break;
+                case "--stall-timeout":
+                    stallTimeoutSeconds = parseInt(value(args, ++i, arg), arg, 0, Integer.MAX_VALUE);
+                    break;
+                case "--force":
+                    force = true;
+                    break;
+                case "--resume":
+                    resume = true;
+                    break;
+                case "-w":
+                case "--watch":
+                    watch = true;
+                    break;
+                case "--settle":
+                    settleSeconds = parseInt(value(args, ++i, arg), arg, 1, Integer.MAX_VALUE);
+                    break;
+                default:
+                    if (arg.startsWith("-") && arg.length() > 1) {
+                        throw new IllegalArgumentException("unknown option " + arg);
+                    }
+                    inputs.add(arg);
+            }
+        }
+        if (inputs.isEmpty() && !resume) {
+            throw new IllegalArgumentException("no input files");
+        }
+        for (ConversionSettings.OutputFormat format : targetFormats()) {
+            List<Integer> bitrates = format.getBitrateOptions();
+            if (bitrate != null && format.supportsBitrate() && !bitrates.contains(bitrate)) {
+                throw new IllegalArgumentException("--bitrate for " + format + " must be one of "
+                        + join(bitrates) + ", got " + bitrate);
+            }
+            List<Integer> rates = format.getSampleRateOptions();
+            if (sampleRate != null && !rates.contains(sampleRate)) {
+                throw new IllegalArgumentException("--sample-rate for " + format + " must be one of "
+                        + join(rates) + ", got " + sampleRate);
+            }
+        }
+        if (watch) {
+            for (String input : inputs) {
+                if (!Files.isDirectory(Paths.get(input))) {
+                    throw new IllegalArgumentException("--watch needs directories, got '" + input + "'");
+                }
+            }
+        }
+        return true;
+    }
+
+    private List<ConversionSettings.OutputFormat> targetFormats() {
+        List<ConversionSettings.OutputFormat> targetFormats = new ArrayList<>(formats);
+        if (targetFormats.isEmpty()) {
+            targetFormats.add(preset != null ? preset.getFormat() : ConversionSettings.OutputFormat.MP3);
+        }
+        return targetFormats;
+    }
+
+    private List<ConversionSettings> buildTargets() {
+        List<ConversionSettings> targets = new ArrayList<>();
+        for (ConversionSettings.OutputFormat format : targetFormats()) {
+            ConversionSettings settings = preset != null
+                    ? ConversionSettings.fromPreset(preset)
+                    : new ConversionSettings();
+            if (settings.getOutputFormat() != format) {
+                settings.setOutputFormat(format);
+            }
+            if (bitrate != null && format.supportsBitrate()) {
+                settings.setBitrateMode(ConversionSettings.BitrateMode.CONSTANT);
+                settings.setCustomBitrate(bitrate);
+            }
+            if (vbrQuality != null && format.supportsVBR()) {
+                settings.setBitrateMode(ConversionSettings.BitrateMode.VARIABLE);
+                settings.setVbrQuality(vbrQuality);
+            }
+            if (sampleRate != null) {
+                settings.setSampleRate(ConversionSettings.SampleRate.fromRate(sampleRate));
+            }
+            if (channels != null) {
+                settings.setChannels(channels == 1
+                        ? ConversionSettings.Channels.MONO
+                        : ConversionSettings.Channels.STEREO);
+            }
+            targets.add(settings.snapshot());
+        }
+        return targets;
+    }
+
+    /**
+     * Files are taken as given, directories are searched recursively and arguments
+     * with glob characters (quoted so the shell leaves them alone) are matched
+     * below their fixed leading directory.
+     */
+    private List<AudioFile> expandInputs() throws IOException {
+        Set<Path> paths = new LinkedHashSet<>();
+        for (String input : inputs) {
+            if (isGlob(input)) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + input);
+                int firstMeta = firstGlobChar(input);
+                int slash = input.lastIndexOf('/', firstMeta);
+                // Walked paths keep the fixed prefix, so they compare like the pattern
+                Path base = Paths.get(slash < 0 ? "" : slash == 0 ? "/" : input.substring(0, slash));
+                int depth = input.contains("**") ? Integer.MAX_VALUE
+                        : (int) input.substring(slash + 1).chars().filter(ch -> ch == '/').count() + 1;
+                if (Files.isDirectory(base)) {
+                    try (Stream<Path> walk = Files.walk(base, depth)) {
+                        walk.filter(Files::isRegularFile)
+                                .filter(matcher::matches)
+                                .filter(CommandLineConverter::isSupported)
+                                .sorted()
+                                .forEach(path -> paths.add(path.toAbsolutePath().normalize()));
+                    }
+                }
+            } else {
+                Path path = Paths.get(input);
+                if (Files.isDirectory(path)) {
+                    try (Stream<Path> walk = Files.walk(path)) {
+                        walk.filter(Files::isRegularFile)
+                                .filter(CommandLineConverter::isSupported)
+                                .sorted()
+                                .forEach(p -> paths.add(p.toAbsolutePath().normalize()));
+                    }
+                } else if (Files.isRegularFile(path)) {
+                    paths.add(path.toAbsolutePath().normalize());
+                } else {
+                    throw new IOException("no such file or directory: " + input);
+                }
+            }
+        }
+
+        List<AudioFile> files = new ArrayList<>();
+        for (Path path : paths) {
+            files.add(new AudioFile(path.toString()));
+        }
+        return files;
+    }
+
+    private static boolean isGlob(String input) {
+        return firstGlobChar(input) >= 0;
+    }
+
+    private static int firstGlobChar(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            char ch = input.charAt(i);
+            if (ch == '*' || ch == '?' || ch == '[' || ch == '{') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static boolean isSupported(Path path) {
+        String name = path.getFileName().toString();
+        int lastDot = name.lastIndexOf('.');
+        return lastDot > 0 && SUPPORTED_FORMATS.contains(name.substring(lastDot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    static String describe(ConversionSettings settings) {
+        ConversionSettings.OutputFormat format = settings.getOutputFormat();
+        StringBuilder text = new StringBuilder(format.getExtension())
+                .append(' ').append(settings.getSampleRate().getRate()).append("Hz")
+                .append(' ').append(settings.getChannels().getLabel().toLowerCase(Locale.ROOT));
+        if (format.supportsBitrate()) {
+            if (format.supportsVBR() && settings.getBitrateMode() == ConversionSettings.BitrateMode.VARIABLE) {
+                text.append(" vbr").append(settings.getVbrQuality());
+            } else {
+                text.append(' ').append(settings.getEffectiveBitrate()).append("k");
+            }
+        }
+        return text.toString();
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[index];
+    }
+
+    private static int parseInt(String value, String option) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " expects a number, got '" + value + "'");
+        }
+    }
+
+    private static int parseInt(String value, String option, int min, int max) {
+        int number = parseInt(value, option);
+        if (number < min || number > max) {
+            throw new IllegalArgumentException(max == Integer.MAX_VALUE
+                    ? option + " must be at least " + min + ", got " + number
+                    : option + " must be between " + min + " and " + max + ", got " + number);
+        }
+        return number;
+    }
+
+    private static String join(List<Integer> values) {
+        return values.stream().map(String::valueOf).collect(Collectors.joining(", "));
+    }
+
+    private static SchedulingPolicy parseOrder(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "longest":
+                return SchedulingPolicy.LONGEST_FIRST;
+            case "shortest":
+                return SchedulingPolicy.SHORTEST_FIRST;
+            case "list":
+                return SchedulingPolicy.LIST_ORDER;
+            default:
+                throw new IllegalArgumentException("--order must be one of longest, shortest, list, got '" + value + "'");
+        }
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String value, String option) {
+        String name = value.trim().toUpperCase(Locale.ROOT).replace('-', '_');
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            String choices = Arrays.stream(type.getEnumConstants())
+                    .map(c -> c.name().toLowerCase(Locale.ROOT))
+                    .collect(Collectors.joining(", "));
+            throw new IllegalArgumentException(option + " must be one of " + choices + ", got '" + value + "'");
+        }
+    }
+
+    private void printUsage() {
+        out.println("Usage: CommandLineConverter [options] <file|directory|glob>...");
+        out.println();
+        out.println("  -p, --preset NAME        conversion preset (see --list-presets)");
+        out.println("  -f, --format LIST        output format(s): mp3, wav, m4a, flac; comma separated");
+        out.println("                           formats are encoded from a single decode");
+        out.println("  -b, --bitrate KBPS       constant bitrate for mp3/m4a");
+        out.println("      --vbr 0-5            mp3 variable bitrate quality");
+        out.println("  -r, --sample-rate HZ     output sample rate");
+        out.println("  -c, --channels 1|2       mono or stereo");
+        out.println("  -o, --output DIR         output directory (default: current directory)");
+        out.println("  -j, --jobs N             concurrent conversions, 1-" + MAX_JOBS + " (default: adaptive)");
+        out.println("      --order ORDER        longest, shortest or list (default: longest)");
+        out.println("      --on-collision MODE  inputs sharing an output name: mirror (source folders),");
+        out.println("                           suffix (_2, _3, ...) or skip (default: suffix)");
+        out.println("      --timeout SEC        kill a conversion running longer than this (0: no limit)");
+        out.println("      --stall-timeout SEC  kill a conversion making no progress for this long (0: no limit)");
+        out.println("      --resume             continue the newest interrupted batch (its own inputs and settings)");
+        out.println("      --force              convert even when the output is already up to date");
+        out.println("  -w, --watch              keep running and convert files as they appear in");
+        out.println("                           the given directories");
+        out.println("      --settle SEC         seconds a file must stay unchanged before it is");
+        out.println("                           converted in watch mode (default: " + WatchFolderDaemon.DEFAULT_SETTLE_SECONDS + ")");
+        out.println("      --list-presets       print preset names and exit");
+        out.println();
+        out.println("Events are written to stdout as one JSON object per line.");
+    }
+}
@@ -0,0 +1,119 @@
+package se233.audioconverter.cli;
+
+import se233.audioconverter.controller.AudioConversionTask;
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.ConversionOutput;
+import com.google.gson.Gson;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.DoubleConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Machine-readable event stream of the command-line tools: one JSON object per line.
+ */
+class EventLog {
+    private final PrintStream out;
+    private final Gson gson = new Gson();
+
+    EventLog(PrintStream out) {
+        this.out = out;
+    }
+
+    Map<String, Object> event(String type) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("event", type);
+        return event;
+    }
+
+    void emit(Map<String, Object> event) {
+        String line = gson.toJson(event);
+        synchronized (out) {
+            out.println(line);
+            out.flush();
+        }
+    }
+
+    /**
+     * Emits a progress event per whole percent and passes newly encoded audio
+     * seconds to the given consumer (the adaptive scheduler's throughput signal).
+     */
+    AudioConversionTask.ProgressCallback progressCallback(AudioConversionTask task, DoubleConsumer processed) {
+        return new AudioConversionTask.ProgressCallback() {
+            private int lastPercent = -1;
+            private double reportedSeconds;
+
+            @Override
+            public void onProgress(double percentage, String message) {
+                double doneSeconds = task.getDuration() * percentage / 100.0;
+                processed.accept(doneSeconds - reportedSeconds);
+                reportedSeconds = Math.max(reportedSeconds, doneSeconds);
+
+                // One line per whole percent is plenty for a log consumer
+                int percent = (int) percentage;
+                if (percent > lastPercent) {
+                    lastPercent = percent;
+                    Map<String, Object> progress = event("progress");
+                    progress.put("file", task.getAudioFile().getFilePath());
+                    progress.put("percent", percent);
+                    emit(progress);
+                }
+            }
+
+            @Override
+            public void onStatusChange(AudioFile.ConversionStatus status) {
+            }
+        };
+    }
+
+    /**
+     * Emits a done, skipped or failed event for a finished task and returns how it
+     * ended: COMPLETED, SKIPPED, FAILED or CANCELLED.
+     */
+    AudioFile.ConversionStatus result(AudioConversionTask task, Throwable error) {
+        if (error == null && task.getAudioFile().getStatus() == AudioFile.ConversionStatus.SKIPPED) {
+            Map<String, Object> skipped = event("skipped");
+            skipped.put("file", task.getAudioFile().getFilePath());
+            skipped.put("reason", "up to date");
+            emit(skipped);
+            return AudioFile.ConversionStatus.SKIPPED;
+        }
+        if (error == null) {
+            Map<String, Object> done = event("done");
+            done.put("file", task.getAudioFile().getFilePath());
+            done.put("seconds", round(task.getElapsedSeconds()));
+            done.put("audioSeconds", round(task.getDuration()));
+            if (!task.getOutputs().isEmpty()) {
+                done.put("outputs", task.getOutputs().stream()
+                        .map(ConversionOutput::getOutputPath)
+                        .collect(Collectors.toList()));
+            }
+            emit(done);
+            return AudioFile.ConversionStatus.COMPLETED;
+        }
+
+        String type;
+        Map<String, Object> failure = event("failed");
+        failure.put("file", task.getAudioFile().getFilePath());
+        if (error instanceof AudioConversionException) {
+            type = ((AudioConversionException) error).getErrorType().name();
+            failure.put("error", type);
+            failure.put("message", error.getMessage());
+        } else {
+            type = "UNEXPECTED";
+            failure.put("error", type);
+            failure.put("message", String.valueOf(error));
+        }
+        emit(failure);
+        return type.equals(AudioConversionException.ErrorType.CANCELLED.name())
+                ? AudioFile.ConversionStatus.CANCELLED
+                : AudioFile.ConversionStatus.FAILED;
+    }
+
+    static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+}
@@ -0,0 +1,272 @@
+package se233.audioconverter.cli;
+
+import se233.audioconverter.controller.AudioConversionTask;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.service.ConversionScheduler;
+import se233.audioconverter.service.FFmpegService;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts audio files as they arrive in one or more directory trees.
+ *
+ * The trees are scanned once at startup, which catches up on files that arrived
+ * while the daemon was down; after that only WatchService events are processed.
+ * A file is converted once its size and mtime have been stable for the settle time,
+ * so half-copied recordings are left alone. Handled files are remembered in a
+ * WatchState under ~/.audioconverter/watch, keyed by the watched and output
+ * directories, so a restart does not convert old files again. Outputs mirror the
+ * subdirectory layout of the watched tree.
+ */
+class WatchFolderDaemon {
+    static final long DEFAULT_SETTLE_SECONDS = 5;
+    private static final long POLL_MS = 500;
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final List<Path> roots;
+    private final Path outputDir;
+    private final List<ConversionSettings> targets;
+    private final FFmpegService ffmpegService;
+    private final ConversionScheduler scheduler;
+    private final EventLog events;
+    private final long settleNanos;
+
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+    // Only touched by the daemon thread
+    private final Map<Path, Pending> pending = new HashMap<>();
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+    private final Set<AudioConversionTask> running = ConcurrentHashMap.newKeySet();
+
+    private WatchService watchService;
+    private WatchState state;
+
+    private static final class Pending {
+        long size = -1;
+        long lastModified = -1;
+        long stableSince;
+    }
+
+    WatchFolderDaemon(List<Path> roots, Path outputDir, List<ConversionSettings> targets,
+                      FFmpegService ffmpegService, ConversionScheduler scheduler,
+                      EventLog events, long settleSeconds) {
+        this.roots = roots;
+        this.outputDir = outputDir;
+        this.targets = targets;
+        this.ffmpegService = ffmpegService;
+        this.scheduler = scheduler;
+        this.events = events;
+        this.settleNanos = TimeUnit.SECONDS.toNanos(Math.max(settleSeconds, 0));
+    }
+
+    void run() throws IOException, InterruptedException {
+        state = new WatchState(stateFile());
+        watchService = roots.get(0).getFileSystem().newWatchService();
+
+        // Ctrl-C kills the ffmpeg children instead of leaving them running
+        Thread cancelOnExit = new Thread(() -> running.forEach(AudioConversionTask::cancel));
+        Runtime.getRuntime().addShutdownHook(cancelOnExit);
+
+        try {
+            for (Path root : roots) {
+                registerTree(root);
+            }
+
+            Map<String, Object> start = events.event("watching");
+            start.put("directories", roots.stream().map(Path::toString).toArray());
+            start.put("output", outputDir.toString());
+            start.put("pending", pending.size());
+            events.emit(start);
+
+            long lastFlush = System.nanoTime();
+            while (true) {
+                WatchKey key = watchService.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handleEvents(key);
+                    key = watchService.poll();
+                }
+                checkPending();
+
+                if (System.nanoTime() - lastFlush > FLUSH_INTERVAL_NANOS) {
+                    ffmpegService.flushProbeCache();
+                    ffmpegService.flushManifests();
+                    lastFlush = System.nanoTime();
+                }
+            }
+        } finally {
+            watchService.close();
+            state.close();
+        }
+    }
+
+    private Path stateFile() {
+        String key = roots + "->" + outputDir + "|" + targets.stream()
+                .map(CommandLineConverter::describe).reduce("", String::concat);
+        String name = Hashing.sha256().hashString(key, StandardCharsets.UTF_8).toString().substring(0, 16);
+        return Paths.get(System.getProperty("user.home"), ".audioconverter", "watch", name + ".jsonl");
+    }
+
+    /**
+     * Registers every directory below the root and queues files that are new or
+     * changed since they were last handled.
+     */
+    private void registerTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (dir.startsWith(outputDir)) {
+                    // Outputs written inside the watched tree must not be converted again
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                WatchKey key = dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirs.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && CommandLineConverter.isSupported(file)
+                        && !state.isCurrent(file, attrs.size(), attrs.lastModifiedTime().toMillis())) {
+                    pending.computeIfAbsent(file, f -> new Pending());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void handleEvents(WatchKey key) throws IOException {
+        Path dir = watchedDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost - fall back to scanning this directory's tree
+                if (dir != null) {
+                    registerTree(dir);
+                }
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (path.startsWith(outputDir)) {
+                continue;
+            }
+            if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    // Files may have landed before the new directory was registered
+                    registerTree(path);
+                }
+            } else if (CommandLineConverter.isSupported(path)) {
+                pending.computeIfAbsent(path, p -> new Pending());
+            }
+        }
+        if (!key.reset()) {
+            watchedDirs.remove(key);
+        }
+    }
+
+    private void checkPending() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Path, Pending>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, Pending> entry = iterator.next();
+            Path path = entry.getKey();
+            Pending file = entry.getValue();
+
+            long size;
+            long lastModified;
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                size = attrs.size();
+                lastModified = attrs.lastModifiedTime().toMillis();
+            } catch (IOException e) {
+                // Deleted or renamed before it settled
+                iterator.remove();
+                continue;
+            }
+
+            if (size != file.size || lastModified != file.lastModified) {
+                file.size = size;
+                file.lastModified = lastModified;
+                file.stableSince = now;
+                continue;
+            }
+            if (now - file.stableSince < settleNanos || inFlight.contains(path)) {
+                continue;
+            }
+
+            iterator.remove();
+            if (state.isCurrent(path, size, lastModified)) {
+                continue;
+            }
+            submit(path, size, lastModified);
+        }
+    }
+
+    private void submit(Path path, long size, long lastModified) {
+        Path relative = roots.stream()
+                .filter(path::startsWith)
+                .findFirst()
+                .map(root -> root.relativize(path.getParent()))
+                .orElse(Paths.get(""));
+        Path targetDir = outputDir.resolve(relative);
+
+        AudioConversionTask task = new AudioConversionTask(
+                new AudioFile(path.toString()), targets, targetDir.toString(), ffmpegService);
+        task.setProgressCallback(events.progressCallback(task, scheduler::recordProcessed));
+        inFlight.add(path);
+
+        Map<String, Object> queued = events.event("queued");
+        queued.put("file", path.toString());
+        events.emit(queued);
+
+        scheduler.submit(ConversionScheduler.conversionJob(() -> {
+            running.add(task);
+            Throwable error = null;
+            try {
+                Files.createDirectories(targetDir);
+                task.call();
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                running.remove(task);
+            }
+            AudioFile.ConversionStatus status = events.result(task, error);
+            try {
+                if (status != AudioFile.ConversionStatus.CANCELLED) {
+                    state.record(path, size, lastModified, status == AudioFile.ConversionStatus.FAILED);
+                }
+            } catch (IOException e) {
+                System.err.println("warning: could not update watch state: " + e.getMessage());
+            } finally {
+                inFlight.remove(path);
+            }
+        }));
+    }
+}
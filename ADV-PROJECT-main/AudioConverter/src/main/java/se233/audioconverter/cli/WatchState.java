@@ -0,0 +1,106 @@
+package se233.audioconverter.cli;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Which files a watch folder has already handled, as (size, mtime) per path. Results
+ * are appended one JSON line at a time, so a crash loses at most the line being
+ * written; the file is compacted to one line per path on startup.
+ */
+class WatchState {
+    private final Path file;
+    private final Gson gson = new Gson();
+    private final Map<String, Record> records = new HashMap<>();
+    private BufferedWriter writer;
+
+    static final class Record {
+        String path;
+        long size;
+        long lastModified;
+        boolean failed;
+
+        Record() {
+        }
+
+        Record(String path, long size, long lastModified, boolean failed) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.failed = failed;
+        }
+    }
+
+    WatchState(Path file) throws IOException {
+        this.file = file;
+        Files.createDirectories(file.getParent());
+        load();
+        compact();
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * True when the file was handled before with exactly this size and mtime.
+     * Failed files count too, so a broken input is not retried until it changes.
+     */
+    synchronized boolean isCurrent(Path path, long size, long lastModified) {
+        Record record = records.get(path.toString());
+        return record != null && record.size == size && record.lastModified == lastModified;
+    }
+
+    synchronized void record(Path path, long size, long lastModified, boolean failed) throws IOException {
+        Record record = new Record(path.toString(), size, lastModified, failed);
+        records.put(record.path, record);
+        writer.write(gson.toJson(record));
+        writer.newLine();
+        writer.flush();
+    }
+
+    synchronized void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            // Everything was flushed line by line
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (String line : lines) {
+            try {
+                Record record = gson.fromJson(line, Record.class);
+                if (record != null && record.path != null) {
+                    records.put(record.path, record);
+                }
+            } catch (JsonParseException e) {
+                // A torn last line from a crash - the file will be picked up again
+            }
+        }
+    }
+
+    private void compact() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Record record : records.values()) {
+                out.write(gson.toJson(record));
+                out.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -2,32 +2,71 @@ package se233.audioconverter.controller;
 
 import se233.audioconverter.exception.AudioConversionException;
 import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.ConversionOutput;
 import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.service.BatchJournal;
+import se233.audioconverter.service.CancellationToken;
+import se233.audioconverter.service.ConversionEvents;
+import se233.audioconverter.service.ConversionMetrics;
+import se233.audioconverter.service.ConversionScheduler;
+import se233.audioconverter.service.DuplicateFinder;
 import se233.audioconverter.service.FFmpegService;
 import net.bramp.ffmpeg.progress.Progress;
 import net.bramp.ffmpeg.progress.ProgressListener;
-import net.bramp.ffmpeg.probe.FFmpegProbeResult;
-import net.bramp.ffmpeg.probe.FFmpegFormat;
 
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+
+public class AudioConversionTask implements Callable<Void>, ConversionScheduler.ConversionJob {
+    private static final double UNKNOWN_DURATION = -1;
 
-public class AudioConversionTask implements Callable<Void> {
     private final AudioFile audioFile;
-    private final ConversionSettings settings;
+    private final List<ConversionSettings> targets;
     private final String outputPath;
     private final FFmpegService ffmpegService;
+    private final CancellationToken cancellation = new CancellationToken();
+    private final List<AudioConversionTask> duplicates = new ArrayList<>();
 
     private ProgressCallback progressCallback;
+    private BatchJournal journal;
+    private volatile double duration = UNKNOWN_DURATION;
+    private volatile List<ConversionOutput> outputs = List.of();
+    private volatile AudioConversionException error;
+    private volatile long startNanos;
+    private volatile long endNanos;
 
     public interface ProgressCallback {
         void onProgress(double percentage, String message);
         void onStatusChange(AudioFile.ConversionStatus status);
+
+        // Multi-output conversions: one decode feeds every target, so they share the timeline
+        default void onOutputProgress(ConversionSettings target, double percentage) {
+        }
+
+        default void onOutputFailed(ConversionSettings target, AudioConversionException error) {
+        }
+
+        // Encoder speed as a multiple of realtime, as ffmpeg reports it; comes just before onProgress
+        default void onSpeed(double realtimeFactor) {
+        }
     }
 
     public AudioConversionTask(AudioFile audioFile, ConversionSettings settings,
                                String outputPath, FFmpegService ffmpegService) {
+        this(audioFile, List.of(settings), outputPath, ffmpegService);
+    }
+
+    public AudioConversionTask(AudioFile audioFile, List<ConversionSettings> targets,
+                               String outputPath, FFmpegService ffmpegService) {
         this.audioFile = audioFile;
-        this.settings = settings;
+        // Snapshots, so the settings cannot change under a queued or running job
+        this.targets = targets.stream()
+                .map(ConversionSettings::snapshot)
+                .collect(Collectors.toUnmodifiableList());
         this.outputPath = outputPath;
         this.ffmpegService = ffmpegService;
     }
@@ -36,49 +75,274 @@ public class AudioConversionTask implements Callable<Void> {
         this.progressCallback = callback;
     }
 
+    /**
+     * Records every status change of this task, so an interrupted batch can be resumed.
+     */
+    public void setJournal(BatchJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Folds tasks whose inputs have identical content into one: the first task of
+     * each group converts, and the others receive links to its outputs when it
+     * finishes. Returns the tasks that still have to be run.
+     */
+    public static List<AudioConversionTask> mergeDuplicates(List<AudioConversionTask> tasks,
+                                                            ExecutorService executor)
+            throws InterruptedException {
+        List<List<AudioConversionTask>> groups = DuplicateFinder.findDuplicates(
+                tasks, task -> Paths.get(task.getAudioFile().getFilePath()), executor);
+        if (groups.isEmpty()) {
+            return tasks;
+        }
+
+        List<AudioConversionTask> remaining = new ArrayList<>(tasks);
+        for (List<AudioConversionTask> group : groups) {
+            AudioConversionTask original = group.get(0);
+            for (AudioConversionTask duplicate : group.subList(1, group.size())) {
+                if (duplicate.targets.equals(original.targets)) {
+                    original.duplicates.add(duplicate);
+                    duplicate.duration = original.duration;
+                    remaining.remove(duplicate);
+                }
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Tasks with the same input content that are finished from this task's outputs.
+     */
+    public List<AudioConversionTask> getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * Looks up the input duration in seconds once (probe cache first), so the batch
+     * can weight progress before the conversion itself starts.
+     */
+    public double probeDuration() throws AudioConversionException {
+        if (duration == UNKNOWN_DURATION) {
+            duration = ffmpegService.getMetadata(audioFile).getDuration();
+        }
+        return duration;
+    }
+
+    public double getDuration() {
+        return Math.max(duration, 0);
+    }
+
+    /**
+     * Stops the conversion: a running ffmpeg process is killed, and a task that has
+     * not started yet finishes as CANCELLED without spawning one.
+     */
+    public void cancel() {
+        cancellation.cancel();
+    }
+
+    public boolean isCancelled() {
+        return cancellation.isCancelled();
+    }
+
+    /**
+     * Wall-clock seconds the conversion took, or 0 if it has not finished.
+     */
+    public double getElapsedSeconds() {
+        return endNanos > startNanos ? (endNanos - startNanos) / 1_000_000_000.0 : 0;
+    }
+
     @Override
     public Void call() throws Exception {
+        ConversionMetrics metrics = ConversionMetrics.getInstance();
+        metrics.jobStarted();
+        startNanos = System.nanoTime();
+        ConversionEvents.QueueWait queueWait = new ConversionEvents.QueueWait();
+        queueWait.queueWait = ConversionScheduler.currentQueueWaitNanos();
+        queueWait.commitFor(audioFile, targets);
+        if (cancellation.isCancelled()) {
+            endNanos = startNanos;
+            error = new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.CANCELLED,
+                    "Cancelled before start"
+            );
+            finishDuplicates();
+            updateStatus(AudioFile.ConversionStatus.CANCELLED);
+            metrics.jobFinished(0, audioFile.getFileSize(), 0, false, error);
+            throw error;
+        }
         updateStatus(AudioFile.ConversionStatus.PROCESSING);
 
         try {
-            FFmpegProbeResult probeResult = ffmpegService.probeFile(audioFile.getFilePath());
-            FFmpegFormat format = probeResult.getFormat();
-
-
-            final double duration = format.duration;
-
-            ffmpegService.convertAudio(audioFile, settings, outputPath, new ProgressListener() {
-                @Override
-                public void progress(Progress progress) {
-                    if (duration > 0 && progressCallback != null) {
-                        // ใช้ field โดยตรง
-                        double currentTime = progress.out_time_ns / 1_000_000_000.0;
-                        double percentage = (currentTime / duration) * 100.0;
-                        String message = String.format("Converting %s: %.1f%%",
-                                audioFile.getName(), percentage);
-                        progressCallback.onProgress(percentage, message);
-                    }
-                }
-            });
+            ProgressListener listener = progressListener(probeDuration());
 
-            updateStatus(AudioFile.ConversionStatus.COMPLETED);
+            if (targets.size() == 1) {
+                outputs = List.of(ffmpegService.convertAudio(
+                        audioFile, targets.get(0), outputPath, listener, cancellation));
+            } else {
+                convertAll(listener);
+            }
+
+            finishDuplicates();
+
+            // Nothing to do when every output was already current
+            boolean allSkipped = outputs.stream().allMatch(ConversionOutput::isSkipped);
+            updateStatus(allSkipped
+                    ? AudioFile.ConversionStatus.SKIPPED
+                    : AudioFile.ConversionStatus.COMPLETED);
 
         } catch (AudioConversionException e) {
-            updateStatus(AudioFile.ConversionStatus.FAILED);
+            error = e;
+            finishDuplicates();
+            updateStatus(e.getErrorType() == AudioConversionException.ErrorType.CANCELLED
+                    ? AudioFile.ConversionStatus.CANCELLED
+                    : AudioFile.ConversionStatus.FAILED);
             throw e;
+        } finally {
+            endNanos = System.nanoTime();
+            metrics.jobFinished(endNanos - startNanos, audioFile.getFileSize(), getDuration(),
+                    audioFile.getStatus() == AudioFile.ConversionStatus.SKIPPED, error);
         }
 
         return null;
     }
 
+    /**
+     * Turns ffmpeg progress blocks into percentage callbacks for an input of the
+     * given duration.
+     */
+    ProgressListener progressListener(double duration) {
+        return new ProgressListener() {
+            @Override
+            public void progress(Progress progress) {
+                if (duration > 0 && progressCallback != null) {
+                    // ใช้ field โดยตรง
+                    double currentTime = progress.out_time_ns / 1_000_000_000.0;
+                    double percentage = progress.isEnd()
+                            ? 100.0
+                            : Math.min((currentTime / duration) * 100.0, 100.0);
+                    String message = String.format("Converting %s: %.1f%%",
+                            audioFile.getName(), percentage);
+                    ConversionEvents.UiUpdate event = new ConversionEvents.UiUpdate();
+                    event.begin();
+                    if (progress.speed > 0) {
+                        progressCallback.onSpeed(progress.speed);
+                    }
+                    progressCallback.onProgress(percentage, message);
+                    if (targets.size() > 1) {
+                        for (ConversionSettings target : targets) {
+                            progressCallback.onOutputProgress(target, percentage);
+                        }
+                    }
+                    event.update = "progress";
+                    event.commitFor(audioFile, targets);
+                }
+            }
+        };
+    }
+
+    private void convertAll(ProgressListener listener) throws AudioConversionException {
+        outputs = ffmpegService.convertAudio(audioFile, targets, outputPath, listener, cancellation);
+
+        List<String> failed = new ArrayList<>();
+        AudioConversionException firstError = null;
+        for (ConversionOutput output : outputs) {
+            if (!output.isSuccessful()) {
+                failed.add(output.getSettings().getOutputFormat() + " (" + output.getError().getMessage() + ")");
+                if (firstError == null) {
+                    firstError = output.getError();
+                }
+                if (progressCallback != null) {
+                    progressCallback.onOutputFailed(output.getSettings(), output.getError());
+                }
+            }
+        }
+
+        if (firstError != null) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    firstError.getErrorType(),
+                    failed.size() + " of " + outputs.size() + " outputs failed: " + String.join(", ", failed)
+            );
+        }
+    }
+
+    /**
+     * Completes the duplicates from this task's result: links to its outputs when it
+     * ran, or the same failure when it did not get that far.
+     */
+    private void finishDuplicates() {
+        for (AudioConversionTask duplicate : duplicates) {
+            duplicate.startNanos = System.nanoTime();
+            if (error != null && outputs.isEmpty() || duplicate.isCancelled()) {
+                boolean cancelled = duplicate.isCancelled()
+                        || error.getErrorType() == AudioConversionException.ErrorType.CANCELLED;
+                duplicate.error = new AudioConversionException(
+                        duplicate.audioFile.getName(),
+                        cancelled ? AudioConversionException.ErrorType.CANCELLED : error.getErrorType(),
+                        cancelled ? "Cancelled" : "Same content as " + audioFile.getName() + ": " + error.getMessage()
+                );
+                duplicate.updateStatus(cancelled
+                        ? AudioFile.ConversionStatus.CANCELLED
+                        : AudioFile.ConversionStatus.FAILED);
+            } else {
+                duplicate.outputs = ffmpegService.copyOutputs(duplicate.audioFile, outputs, duplicate.outputPath);
+                duplicate.finishFromOutputs();
+            }
+            duplicate.endNanos = System.nanoTime();
+        }
+    }
+
+    private void finishFromOutputs() {
+        AudioConversionException firstError = null;
+        for (ConversionOutput output : outputs) {
+            if (!output.isSuccessful() && firstError == null) {
+                firstError = output.getError();
+            }
+        }
+        error = firstError;
+        if (firstError != null) {
+            updateStatus(AudioFile.ConversionStatus.FAILED);
+        } else if (outputs.stream().allMatch(ConversionOutput::isSkipped)) {
+            updateStatus(AudioFile.ConversionStatus.SKIPPED);
+        } else {
+            updateStatus(AudioFile.ConversionStatus.COMPLETED);
+        }
+    }
+
+    /**
+     * The error the conversion ended with, or null if it succeeded or has not finished.
+     */
+    public AudioConversionException getError() {
+        return error;
+    }
+
+    /**
+     * Per-target results; empty until the conversion has finished.
+     */
+    public List<ConversionOutput> getOutputs() {
+        return outputs;
+    }
+
+    public List<ConversionSettings> getTargets() {
+        return targets;
+    }
+
     private void updateStatus(AudioFile.ConversionStatus status) {
         audioFile.setStatus(status);
+        if (journal != null) {
+            journal.record(audioFile, status, outputs);
+        }
         if (progressCallback != null) {
+            ConversionEvents.UiUpdate event = new ConversionEvents.UiUpdate();
+            event.begin();
             progressCallback.onStatusChange(status);
+            event.update = status.name();
+            event.commitFor(audioFile, targets);
         }
     }
 
     public AudioFile getAudioFile() {
         return audioFile;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,148 @@
+package se233.audioconverter.controller;
+
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Batch progress weighted by audio duration rather than file count, so one long
+ * recording counts for as much as it actually takes to encode.
+ */
+public class BatchProgress {
+    private final DoubleAdder totalSeconds = new DoubleAdder();
+    private final DoubleAdder completedSeconds = new DoubleAdder();
+    private final DoubleAdder completedBytes = new DoubleAdder();
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * Registers one file with the given weight in seconds of audio.
+     */
+    public Entry add(double durationSeconds) {
+        return add(durationSeconds, 0);
+    }
+
+    /**
+     * Registers one file with the given weight in seconds of audio and its input
+     * size, which is counted as read in step with the audio.
+     */
+    public Entry add(double durationSeconds, long inputBytes) {
+        double weight = Math.max(durationSeconds, 0);
+        totalSeconds.add(weight);
+        return new Entry(weight, Math.max(inputBytes, 0));
+    }
+
+    public double getTotalSeconds() {
+        return totalSeconds.sum();
+    }
+
+    public double getCompletedSeconds() {
+        return Math.min(completedSeconds.sum(), getTotalSeconds());
+    }
+
+    public double getFraction() {
+        double total = getTotalSeconds();
+        return total > 0 ? getCompletedSeconds() / total : 0;
+    }
+
+    /**
+     * Audio seconds encoded per wall-clock second since the batch started.
+     */
+    public double getRealtimeFactor() {
+        double elapsed = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        return elapsed > 0 ? getCompletedSeconds() / elapsed : 0;
+    }
+
+    /**
+     * Input bytes consumed per wall-clock second since the batch started.
+     */
+    public double getBytesPerSecond() {
+        double elapsed = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        return elapsed > 0 ? completedBytes.sum() / elapsed : 0;
+    }
+
+    /**
+     * Estimated wall-clock seconds left, or -1 while there is no rate yet.
+     */
+    public double getEtaSeconds() {
+        double rate = getRealtimeFactor();
+        if (rate <= 0) {
+            return -1;
+        }
+        return (getTotalSeconds() - getCompletedSeconds()) / rate;
+    }
+
+    public static String formatDuration(double seconds) {
+        if (seconds < 0) {
+            return "--:--";
+        }
+        long s = Math.round(seconds);
+        long hours = s / 3600;
+        long minutes = (s % 3600) / 60;
+        long secs = s % 60;
+        if (hours > 0) {
+            return String.format("%d:%02d:%02d", hours, minutes, secs);
+        }
+        return String.format("%02d:%02d", minutes, secs);
+    }
+
+    public static String formatRate(double bytesPerSecond) {
+        if (bytesPerSecond >= 1024 * 1024) {
+            return String.format("%.1f MB/s", bytesPerSecond / (1024 * 1024));
+        }
+        return String.format("%.0f KB/s", bytesPerSecond / 1024);
+    }
+
+    /**
+     * Per-file share of the batch. Each entry is only updated from the worker
+     * that converts the file, so the delta bookkeeping needs no locking.
+     */
+    public final class Entry {
+        private final double weight;
+        private final long bytes;
+        private double reported;
+        private boolean finished;
+
+        private Entry(double weight, long bytes) {
+            this.weight = weight;
+            this.bytes = bytes;
+        }
+
+        public double getWeight() {
+            return weight;
+        }
+
+        /**
+         * Returns the audio seconds newly completed by this update.
+         */
+        public double update(double fraction) {
+            if (finished) {
+                return 0;
+            }
+            double done = weight * Math.min(Math.max(fraction, 0), 1);
+            if (done <= reported) {
+                return 0;
+            }
+            double delta = done - reported;
+            completedSeconds.add(delta);
+            if (weight > 0) {
+                completedBytes.add(bytes * delta / weight);
+            }
+            reported = done;
+            return delta;
+        }
+
+        public void complete() {
+            update(1.0);
+            finished = true;
+        }
+
+        /**
+         * Drops the unconverted remainder of a failed file from the total
+         * instead of counting it as encoded audio.
+         */
+        public void abandon() {
+            if (!finished) {
+                totalSeconds.add(-(weight - reported));
+                finished = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package se233.audioconverter.controller;
+
+import javafx.application.Platform;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.service.FolderWalker;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Adds files to the file list without stalling the FX thread, however many are
+ * dropped at once. Duplicates are rejected through a set of the paths in the list
+ * (or on their way in) instead of a scan of the list; the AudioFile objects, which
+ * stat their file, are built in chunks on a small pool; and finished chunks reach
+ * the list in one addAll per FX turn, in the order the files were given (or, for
+ * folders, found).
+ */
+public class FileImporter {
+    private static final int CHUNK_SIZE = 512;
+    // Smaller first chunk of a folder import, so the list starts filling at once
+    private static final int FIRST_FOLDER_CHUNK_SIZE = 64;
+
+    private final ObservableList<AudioFile> target;
+    private final Runnable onAdded;
+    private final Set<String> paths = ConcurrentHashMap.newKeySet();
+    private final Deque<Import> imports = new ArrayDeque<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ExecutorService pool;
+
+    /**
+     * @param onAdded run on the FX thread after each batch is added to the list
+     */
+    public FileImporter(ObservableList<AudioFile> target, Runnable onAdded) {
+        this.target = target;
+        this.onAdded = onAdded;
+
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "file-import-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        this.pool = executor;
+
+        // Keep the path index in step with the list, whoever changes it
+        target.forEach(file -> paths.add(file.getFilePath()));
+        target.addListener((ListChangeListener<AudioFile>) change -> {
+            while (change.next()) {
+                for (AudioFile removed : change.getRemoved()) {
+                    paths.remove(removed.getFilePath());
+                }
+                for (AudioFile added : change.getAddedSubList()) {
+                    paths.add(added.getFilePath());
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues files for the list. Must be called on the FX thread; returns at once.
+     */
+    public void importFiles(List<File> files) {
+        if (files.isEmpty()) {
+            return;
+        }
+        List<File> queued = List.copyOf(files);
+        Import batch = new Import();
+        imports.addLast(batch);
+        for (int i = 0; i < queued.size(); i += CHUNK_SIZE) {
+            submit(batch, queued.subList(i, Math.min(queued.size(), i + CHUNK_SIZE)));
+        }
+        batch.close();
+    }
+
+    /**
+     * Walks folders in the background and streams the audio files found into the
+     * list, in chunks, while the walk is still going. Must be called on the FX thread.
+     */
+    public void importFolders(List<File> folders, FolderWalker walker) {
+        if (folders.isEmpty()) {
+            return;
+        }
+        List<Path> roots = folders.stream().map(File::toPath).collect(Collectors.toList());
+        Import batch = new Import();
+        imports.addLast(batch);
+        List<File> pending = new ArrayList<>();
+        walker.walk(roots, path -> {
+            // Called from several walker threads at once
+            synchronized (pending) {
+                pending.add(path.toFile());
+                int limit = batch.size() == 0 ? FIRST_FOLDER_CHUNK_SIZE : CHUNK_SIZE;
+                if (pending.size() >= limit) {
+                    submit(batch, new ArrayList<>(pending));
+                    pending.clear();
+                }
+            }
+        }, batch::isCancelled).whenComplete((ignored, error) -> {
+            synchronized (pending) {
+                if (!pending.isEmpty()) {
+                    submit(batch, new ArrayList<>(pending));
+                }
+            }
+            batch.close();
+            scheduleFlush();
+        });
+    }
+
+    private void submit(Import batch, List<File> chunk) {
+        int index = batch.addChunk();
+        pool.execute(() -> batch.complete(index, load(chunk)));
+    }
+
+    /**
+     * Drops everything still being imported, e.g. when the list is cleared.
+     * Must be called on the FX thread.
+     */
+    public void cancel() {
+        for (Import batch : imports) {
+            batch.cancel();
+        }
+        imports.clear();
+    }
+
+    /**
+     * True while files handed to importFiles or found by importFolders have not all
+     * reached the list yet.
+     */
+    public boolean isImporting() {
+        return !imports.isEmpty();
+    }
+
+    private List<AudioFile> load(List<File> chunk) {
+        List<AudioFile> loaded = new ArrayList<>(chunk.size());
+        for (File file : chunk) {
+            String path = file.getAbsolutePath();
+            // Claimed here, so the same file dropped twice is only loaded once
+            if (paths.add(path)) {
+                loaded.add(new AudioFile(path));
+            }
+        }
+        return loaded;
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            Platform.runLater(this::flush);
+        }
+    }
+
+    /**
+     * Moves every chunk that is ready, in order, into the list as one change.
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        List<AudioFile> ready = new ArrayList<>();
+        while (!imports.isEmpty()) {
+            Import batch = imports.peekFirst();
+            batch.drainTo(ready);
+            if (!batch.isDone()) {
+                break;
+            }
+            imports.removeFirst();
+        }
+        if (!ready.isEmpty()) {
+            target.addAll(ready);
+            onAdded.run();
+        }
+    }
+
+    /**
+     * One import call: its chunks finish in any order but are handed to the list in
+     * sequence. Chunks can be added until the import is closed.
+     */
+    private class Import {
+        private final List<List<AudioFile>> results = new ArrayList<>();
+        private int next;
+        private boolean closed;
+        private volatile boolean cancelled;
+
+        synchronized int addChunk() {
+            results.add(null);
+            return results.size() - 1;
+        }
+
+        synchronized int size() {
+            return results.size();
+        }
+
+        synchronized void close() {
+            closed = true;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        void complete(int index, List<AudioFile> loaded) {
+            synchronized (this) {
+                if (cancelled) {
+                    release(loaded);
+                    return;
+                }
+                results.set(index, loaded);
+            }
+            scheduleFlush();
+        }
+
+        synchronized void drainTo(List<AudioFile> ready) {
+            while (next < results.size() && results.get(next) != null) {
+                ready.addAll(results.get(next));
+                results.set(next, List.of());
+                next++;
+            }
+        }
+
+        synchronized boolean isDone() {
+            return closed && next == results.size();
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            for (int i = next; i < results.size(); i++) {
+                if (results.get(i) != null) {
+                    release(results.get(i));
+                }
+            }
+        }
+
+        private void release(List<AudioFile> loaded) {
+            for (AudioFile file : loaded) {
+                paths.remove(file.getFilePath());
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package se233.audioconverter.controller;
+
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import se233.audioconverter.model.AudioFile;
+
+/**
+ * One row of the conversion list: the file and its status, and while it converts
+ * a progress bar with the encoder speed and time left. A cell builds one of these
+ * once and repaints it for whatever file it shows.
+ */
+class FileRowView extends HBox {
+    private final Label nameLabel = new Label();
+    private final ProgressBar progressBar = new ProgressBar(0);
+    private final Label rateLabel = new Label();
+
+    FileRowView() {
+        super(10);
+        setAlignment(Pos.CENTER_LEFT);
+        nameLabel.setMaxWidth(Double.MAX_VALUE);
+        HBox.setHgrow(nameLabel, Priority.ALWAYS);
+        progressBar.setPrefWidth(120);
+        rateLabel.setMinWidth(110);
+        rateLabel.setStyle("-fx-text-fill: gray; -fx-font-size: 11;");
+        getChildren().addAll(nameLabel, progressBar, rateLabel);
+    }
+
+    void show(AudioFile item, UiUpdateBatcher.RowProgress progress) {
+        nameLabel.setText(item.toString());
+        switch (item.getStatus()) {
+            case PENDING -> nameLabel.setStyle("-fx-text-fill: black;");
+            case PROCESSING -> nameLabel.setStyle("-fx-text-fill: blue; -fx-font-weight: bold;");
+            case COMPLETED -> nameLabel.setStyle("-fx-text-fill: green; -fx-font-weight: bold;");
+            case FAILED -> nameLabel.setStyle("-fx-text-fill: red; -fx-font-weight: bold;");
+            case CANCELLED -> nameLabel.setStyle("-fx-text-fill: gray; -fx-font-style: italic;");
+            case SKIPPED -> nameLabel.setStyle("-fx-text-fill: darkgreen;");
+        }
+
+        boolean processing = item.getStatus() == AudioFile.ConversionStatus.PROCESSING;
+        boolean completed = item.getStatus() == AudioFile.ConversionStatus.COMPLETED;
+        progressBar.setVisible(processing || completed);
+        if (completed) {
+            progressBar.setProgress(1);
+        } else if (processing) {
+            // Indeterminate until ffmpeg reports how far it has got
+            progressBar.setProgress(progress != null
+                    ? progress.getFraction() : ProgressBar.INDETERMINATE_PROGRESS);
+        }
+
+        if (processing && progress != null && progress.getSpeed() > 0) {
+            rateLabel.setText(String.format("%.1fx, %s left", progress.getSpeed(),
+                    BatchProgress.formatDuration(progress.getRemainingSeconds())));
+        } else {
+            rateLabel.setText("");
+        }
+    }
+}
@@ -3,9 +3,14 @@ package se233.audioconverter.controller;
 import se233.audioconverter.Launcher;
 import se233.audioconverter.exception.AudioConversionException;
 import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.CollisionPolicy;
 import se233.audioconverter.model.ConversionSettings;
 import se233.audioconverter.model.ConversionPreset;
+import se233.audioconverter.model.SchedulingPolicy;
+import se233.audioconverter.service.BatchJournal;
+import se233.audioconverter.service.ConversionScheduler;
 import se233.audioconverter.service.FFmpegService;
+import se233.audioconverter.service.FolderWalker;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -25,10 +30,14 @@ import javafx.stage.FileChooser;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.stream.Collectors;
 
 public class MainViewController {
     private static final List<String> SUPPORTED_FORMATS = Arrays.asList("mp3", "wav", "m4a", "flac");
@@ -41,6 +50,8 @@ public class MainViewController {
     @FXML private ListView<AudioFile> filePreviewList;
     @FXML private Label fileCountLabel;
     @FXML private Button nextButton;
+    @FXML private TextField includeGlobsField;
+    @FXML private TextField excludeGlobsField;
 
     // Stage 2: Configuration
     @FXML private VBox configStage;
@@ -70,6 +81,8 @@ public class MainViewController {
     @FXML private CheckBox showAdvancedCheckBox;
     @FXML private ComboBox<ConversionSettings.SampleRate> sampleRateComboBox;
     @FXML private ComboBox<ConversionSettings.Channels> channelsComboBox;
+    @FXML private ComboBox<SchedulingPolicy> schedulingComboBox;
+    @FXML private ComboBox<CollisionPolicy> collisionComboBox;
 
     // Bitrate Mode (in Advanced Settings, MP3 and M4A)
     @FXML private VBox bitrateModeBox;
@@ -85,17 +98,29 @@ public class MainViewController {
 
     @FXML private Button convertButton;
     @FXML private Button clearButton;
+    @FXML private Button cancelButton;
     @FXML private ProgressBar progressBar;
     @FXML private Label statusLabel;
+    @FXML private Label throughputLabel;
 
     private ObservableList<AudioFile> audioFiles;
+    private FileImporter fileImporter;
+    private UiUpdateBatcher uiUpdates;
     private ConversionSettings settings;
     private FFmpegService ffmpegService;
-    private ExecutorService executorService;
+    private ConversionScheduler executorService;
+    private final Map<AudioFile, AudioConversionTask> activeTasks = new ConcurrentHashMap<>();
+    private volatile BatchJournal activeJournal;
+    private volatile BatchProgress runningBatch;
 
     @FXML
     public void initialize() {
         audioFiles = FXCollections.observableArrayList();
+        fileImporter = new FileImporter(audioFiles, this::updateFilePreview);
+        uiUpdates = new UiUpdateBatcher(value -> {
+            progressBar.setProgress(value);
+            updateThroughputLabel();
+        });
         settings = new ConversionSettings();
 
         try {
@@ -107,12 +132,14 @@ public class MainViewController {
             return;
         }
 
-        executorService = Executors.newFixedThreadPool(4);
+        executorService = new ConversionScheduler();
 
         setupStage1();
         setupStage2();
 
         showStage1();
+
+        Platform.runLater(this::offerResume);
     }
 
     private void setupStage1() {
@@ -161,24 +188,35 @@ public class MainViewController {
 
     private void setupStage2() {
         fileListView.setItems(audioFiles);
-        fileListView.setCellFactory(param -> new ListCell<>() {
-            @Override
-            protected void updateItem(AudioFile item, boolean empty) {
-                super.updateItem(item, empty);
-                if (empty || item == null) {
-                    setText(null);
-                    setStyle("");
-                } else {
-                    setText(item.toString());
-                    switch (item.getStatus()) {
-                        case PENDING -> setStyle("-fx-text-fill: black;");
-                        case PROCESSING -> setStyle("-fx-text-fill: blue; -fx-font-weight: bold;");
-                        case COMPLETED -> setStyle("-fx-text-fill: green; -fx-font-weight: bold;");
-                        case FAILED -> setStyle("-fx-text-fill: red; -fx-font-weight: bold;");
-                    }
-                }
+        // Rows are repainted by uiUpdates as their status changes, not by refreshing the list
+        fileListView.setCellFactory(uiUpdates.cellFactory((cell, item) -> {
+            if (!(cell.getGraphic() instanceof FileRowView)) {
+                cell.setGraphic(new FileRowView());
+            }
+            ((FileRowView) cell.getGraphic()).show(item, uiUpdates.getRowProgress(item));
+            cell.setContentDisplay(ContentDisplay.GRAPHIC_ONLY);
+        }));
+
+        // Right-click a file to cancel just that one while the batch keeps going
+        MenuItem cancelFileItem = new MenuItem("Cancel This File");
+        cancelFileItem.setOnAction(e -> {
+            AudioFile selected = fileListView.getSelectionModel().getSelectedItem();
+            AudioConversionTask task = selected != null ? activeTasks.get(selected) : null;
+            if (task != null) {
+                task.cancel();
             }
         });
+        ContextMenu fileContextMenu = new ContextMenu(cancelFileItem);
+        fileContextMenu.setOnShowing(e -> {
+            AudioFile selected = fileListView.getSelectionModel().getSelectedItem();
+            cancelFileItem.setDisable(selected == null
+                    || !activeTasks.containsKey(selected)
+                    || selected.getStatus() == AudioFile.ConversionStatus.COMPLETED
+                    || selected.getStatus() == AudioFile.ConversionStatus.FAILED
+                    || selected.getStatus() == AudioFile.ConversionStatus.CANCELLED
+                    || selected.getStatus() == AudioFile.ConversionStatus.SKIPPED);
+        });
+        fileListView.setContextMenu(fileContextMenu);
 
         formatComboBox.setItems(FXCollections.observableArrayList(
                 ConversionSettings.OutputFormat.values()));
@@ -294,6 +332,12 @@ public class MainViewController {
             settings.setChannels(channelsComboBox.getValue());
         });
 
+        schedulingComboBox.setItems(FXCollections.observableArrayList(SchedulingPolicy.values()));
+        schedulingComboBox.setValue(SchedulingPolicy.LONGEST_FIRST);
+
+        collisionComboBox.setItems(FXCollections.observableArrayList(CollisionPolicy.values()));
+        collisionComboBox.setValue(CollisionPolicy.SUFFIX);
+
         advancedSettingsBox.setVisible(false);
         advancedSettingsBox.setManaged(false);
         showAdvancedCheckBox.setOnAction(e -> {
@@ -304,6 +348,7 @@ public class MainViewController {
 
         convertButton.setOnAction(e -> onConvert());
         clearButton.setOnAction(e -> onClear());
+        cancelButton.setOnAction(e -> onCancelConversion());
 
         progressBar.setProgress(0);
         statusLabel.setText("Ready");
@@ -412,7 +457,7 @@ public class MainViewController {
             Dragboard db = event.getDragboard();
             if (db.hasFiles()) {
                 boolean hasValidFile = db.getFiles().stream()
-                        .anyMatch(file -> isAudioFile(file.getName()));
+                        .anyMatch(file -> file.isDirectory() || isAudioFile(file.getName()));
                 if (hasValidFile) {
                     event.acceptTransferModes(TransferMode.COPY);
                     targetZone.setStyle("-fx-border-color: #2196F3; -fx-border-width: 3; -fx-border-style: dashed; -fx-border-radius: 10; -fx-background-color: #E3F2FD; -fx-background-radius: 10; -fx-padding: 60;");
@@ -432,20 +477,16 @@ public class MainViewController {
 
             if (db.hasFiles()) {
                 List<File> validFiles = db.getFiles().stream()
-                        .filter(file -> isAudioFile(file.getName()))
+                        .filter(file -> !file.isDirectory() && isAudioFile(file.getName()))
+                        .toList();
+                List<File> folders = db.getFiles().stream()
+                        .filter(File::isDirectory)
                         .toList();
 
-                for (File file : validFiles) {
-                    AudioFile audioFile = new AudioFile(file.getAbsolutePath());
-                    boolean exists = audioFiles.stream()
-                            .anyMatch(af -> af.getFilePath().equals(audioFile.getFilePath()));
-                    if (!exists) {
-                        audioFiles.add(audioFile);
-                    }
-                }
-
-                success = !validFiles.isEmpty();
-                updateFilePreview();
+                // Loaded in the background; the list fills in as batches are ready
+                fileImporter.importFiles(validFiles);
+                fileImporter.importFolders(folders, createFolderWalker());
+                success = !validFiles.isEmpty() || !folders.isEmpty();
             }
 
             targetZone.setStyle("-fx-border-color: #4CAF50; -fx-border-width: 3; -fx-border-style: dashed; -fx-border-radius: 10; -fx-background-color: #f9f9f9; -fx-background-radius: 10; -fx-padding: 60;");
@@ -642,20 +683,29 @@ public class MainViewController {
         List<File> selectedFiles = fileChooser.showOpenMultipleDialog(Launcher.primaryStage);
 
         if (selectedFiles != null && !selectedFiles.isEmpty()) {
-            for (File file : selectedFiles) {
-                if (isAudioFile(file.getName())) {
-                    AudioFile audioFile = new AudioFile(file.getAbsolutePath());
-                    boolean exists = audioFiles.stream()
-                            .anyMatch(af -> af.getFilePath().equals(audioFile.getFilePath()));
-                    if (!exists) {
-                        audioFiles.add(audioFile);
-                    }
-                }
-            }
-            updateFilePreview();
+            fileImporter.importFiles(selectedFiles.stream()
+                    .filter(file -> isAudioFile(file.getName()))
+                    .toList());
+        }
+    }
+
+    @FXML
+    private void onBrowseFolder() {
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        directoryChooser.setTitle("Select Folder with Audio Files");
+        File folder = directoryChooser.showDialog(Launcher.primaryStage);
+
+        if (folder != null) {
+            fileImporter.importFolders(List.of(folder), createFolderWalker());
         }
     }
 
+    private FolderWalker createFolderWalker() {
+        return new FolderWalker(SUPPORTED_FORMATS,
+                FolderWalker.parseGlobs(includeGlobsField.getText()),
+                FolderWalker.parseGlobs(excludeGlobsField.getText()));
+    }
+
     @FXML
     private void onNextToConfig() {
         if (audioFiles.isEmpty()) {
@@ -672,6 +722,7 @@ public class MainViewController {
 
     @FXML
     private void onClearFromStage1() {
+        fileImporter.cancel();
         audioFiles.clear();
         updateFilePreview();
     }
@@ -682,6 +733,10 @@ public class MainViewController {
             showError("No Files", "Please add audio files to convert.");
             return;
         }
+        if (fileImporter.isImporting()) {
+            showInfo("Still Adding Files", "Files are still being added. Try again once the list is complete.");
+            return;
+        }
 
         DirectoryChooser directoryChooser = new DirectoryChooser();
         directoryChooser.setTitle("Select Output Directory");
@@ -691,57 +746,256 @@ public class MainViewController {
             return;
         }
 
+        // Later edits in the form must not reach this batch
+        List<ConversionSettings> targets = List.of(settings.snapshot());
+        CollisionPolicy collision = getCollisionPolicy();
+        // Mirrored folders are relative to everything in the list
+        Path sourceRoot = CollisionPolicy.commonRoot(
+                audioFiles.stream().map(AudioFile::getFilePath).collect(Collectors.toList()));
+        BatchJournal journal = null;
+        try {
+            journal = BatchJournal.create(outputDir.getAbsolutePath(), sourceRoot, collision, targets, audioFiles);
+        } catch (IOException e) {
+            // The batch still runs, it just cannot be resumed after a crash
+        }
+        startConversion(outputDir, sourceRoot, collision, new ArrayList<>(audioFiles), targets, journal);
+    }
+
+    /**
+     * Offers to resume the newest batch that was interrupted by a crash or by closing
+     * the window: files that had not completed are queued again in the same output
+     * directory with the settings they were started with.
+     */
+    private void offerResume() {
+        List<BatchJournal.Interrupted> interrupted = BatchJournal.findInterrupted();
+        if (interrupted.isEmpty()) {
+            return;
+        }
+        BatchJournal.Interrupted batch = interrupted.get(0);
+        int total = batch.getFiles().size();
+        int done = batch.getDoneCount();
+
+        ButtonType resume = new ButtonType("Resume");
+        ButtonType discard = new ButtonType("Discard");
+        ButtonType later = new ButtonType("Not Now", ButtonBar.ButtonData.CANCEL_CLOSE);
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION,
+                String.format("A batch of %d file(s) was interrupted with %d completed.\n\nOutput location: %s\n\nResume the remaining %d file(s)?",
+                        total, done, batch.getOutputPath(), total - done),
+                resume, discard, later);
+        alert.setTitle("Resume Conversion");
+        alert.setHeaderText("Unfinished conversion found");
+        ButtonType choice = alert.showAndWait().orElse(later);
+
+        if (choice == discard) {
+            batch.discard();
+        } else if (choice == resume) {
+            resumeBatch(batch);
+        }
+    }
+
+    private void resumeBatch(BatchJournal.Interrupted batch) {
+        BatchJournal journal;
+        try {
+            journal = batch.resume();
+        } catch (IOException e) {
+            showError("Resume Failed", e.getMessage());
+            return;
+        }
+
+        // The rest of the batch has to land where the original run put the first part
+        CollisionPolicy collision = batch.getCollisionPolicy();
+        collisionComboBox.setValue(collision);
+        Path sourceRoot = batch.getSourceRoot();
+        List<AudioFile> files = new ArrayList<>();
+        List<AudioFile> remaining = new ArrayList<>();
+        for (String path : batch.getFiles()) {
+            if (!new File(path).isFile()) {
+                // Moved or deleted since - nothing left to convert
+                continue;
+            }
+            AudioFile audioFile = new AudioFile(path);
+            if (batch.isDone(path)) {
+                audioFile.setStatus(AudioFile.ConversionStatus.COMPLETED);
+            } else {
+                ffmpegService.removePartialOutputs(audioFile, batch.getTargets(),
+                        collision.outputDirectory(batch.getOutputPath(), sourceRoot, path));
+                remaining.add(audioFile);
+            }
+            files.add(audioFile);
+        }
+
+        audioFiles.setAll(files);
+        updateFilePreview();
+        showStage2();
+        if (remaining.isEmpty()) {
+            journal.complete();
+            statusLabel.setText("Nothing left to resume - all files were completed");
+            return;
+        }
+        startConversion(new File(batch.getOutputPath()), sourceRoot, collision, remaining, batch.getTargets(),
+                journal);
+    }
+
+    private void startConversion(File outputDir, Path sourceRoot, CollisionPolicy collision, List<AudioFile> files,
+                                 List<ConversionSettings> targets, BatchJournal journal) {
         setUIDisabled(true);
+        activeJournal = journal;
 
-        audioFiles.forEach(file -> file.setStatus(AudioFile.ConversionStatus.PENDING));
+        files.forEach(file -> file.setStatus(AudioFile.ConversionStatus.PENDING));
         fileListView.refresh();
 
-        List<AudioConversionTask> tasks = new ArrayList<>();
-        for (AudioFile audioFile : audioFiles) {
-            AudioConversionTask task = new AudioConversionTask(
-                    audioFile, settings, outputDir.getAbsolutePath(), ffmpegService);
+        SchedulingPolicy policy = schedulingComboBox.getValue() != null
+                ? schedulingComboBox.getValue()
+                : SchedulingPolicy.LONGEST_FIRST;
 
-            task.setProgressCallback(new AudioConversionTask.ProgressCallback() {
-                @Override
-                public void onProgress(double percentage, String message) {
-                }
-
-                @Override
-                public void onStatusChange(AudioFile.ConversionStatus status) {
-                    Platform.runLater(() -> fileListView.refresh());
-                }
-            });
+        // A resumed batch brings the root and policy the journal recorded, so it lands
+        // in the same layout as the original run
+        ffmpegService.setCollisionPolicy(collision);
 
+        List<AudioConversionTask> tasks = new ArrayList<>();
+        for (AudioFile audioFile : files) {
+            AudioConversionTask task = new AudioConversionTask(audioFile, targets,
+                    collision.outputDirectory(outputDir.getAbsolutePath(), sourceRoot, audioFile.getFilePath()),
+                    ffmpegService);
+            task.setJournal(journal);
             tasks.add(task);
         }
+        activeTasks.clear();
+        for (AudioConversionTask task : tasks) {
+            activeTasks.put(task.getAudioFile(), task);
+        }
 
-        Task<Void> masterTask = new Task<>() {
+        Task<String> masterTask = new Task<>() {
             @Override
-            protected Void call() throws Exception {
+            protected String call() throws Exception {
+                int totalTasks = tasks.size();
+                int completedTasks = 0;
+
+                // Probe durations up front so progress is weighted by audio length
+                updateMessage("Analyzing " + totalTasks + " file(s)...");
+                List<Callable<Double>> probes = new ArrayList<>();
+                for (AudioConversionTask task : tasks) {
+                    probes.add(task::probeDuration);
+                }
+                executorService.invokeAll(probes);
+
+                // Identical files under other names are encoded once and linked
+                updateMessage("Checking " + totalTasks + " file(s) for duplicates...");
+                List<AudioConversionTask> unique = AudioConversionTask.mergeDuplicates(tasks, executorService);
+                totalTasks = unique.size();
+
+                double knownSeconds = 0;
+                int knownCount = 0;
+                for (AudioConversionTask task : unique) {
+                    if (task.getDuration() > 0) {
+                        knownSeconds += task.getDuration();
+                        knownCount++;
+                    }
+                }
+                // Files that could not be probed get the average weight
+                double fallbackSeconds = knownCount > 0 ? knownSeconds / knownCount : 1.0;
+
+                // Files without a probed duration are estimated from their size
+                double knownBytes = 0;
+                for (AudioConversionTask task : unique) {
+                    if (task.getDuration() > 0) {
+                        knownBytes += task.getAudioFile().getFileSize();
+                    }
+                }
+                double bytesPerSecond = knownSeconds > 0 ? knownBytes / knownSeconds : 0;
+                Map<AudioConversionTask, Double> estimates = new HashMap<>();
+                for (AudioConversionTask task : unique) {
+                    double estimate = task.getDuration() > 0 ? task.getDuration()
+                            : bytesPerSecond > 0 ? task.getAudioFile().getFileSize() / bytesPerSecond
+                            : task.getAudioFile().getFileSize();
+                    estimates.put(task, estimate);
+                }
+                List<AudioConversionTask> queue = policy.order(unique, estimates::get);
+                int workers = executorService.getConcurrency();
+                long batchStart = System.nanoTime();
+
+                BatchProgress batchProgress = new BatchProgress();
+                runningBatch = batchProgress;
+                Map<Future<Void>, BatchProgress.Entry> entries = new HashMap<>();
+                Map<Future<Void>, AudioConversionTask> tasksByFuture = new HashMap<>();
                 CompletionService<Void> completionService =
                         new ExecutorCompletionService<>(executorService);
 
-                int totalTasks = tasks.size();
-                int completedTasks = 0;
+                for (AudioConversionTask task : queue) {
+                    double weight = task.getDuration() > 0 ? task.getDuration() : fallbackSeconds;
+                    BatchProgress.Entry entry = batchProgress.add(weight, task.getAudioFile().getFileSize());
+
+                    task.setProgressCallback(new AudioConversionTask.ProgressCallback() {
+                        private double speed;
+
+                        @Override
+                        public void onSpeed(double realtimeFactor) {
+                            speed = realtimeFactor;
+                        }
+
+                        @Override
+                        public void onProgress(double percentage, String message) {
+                            double fraction = percentage / 100.0;
+                            executorService.recordProcessed(entry.update(fraction));
+                            double remaining = speed > 0 ? task.getDuration() * (1 - fraction) / speed : -1;
+                            uiUpdates.setRowProgress(task.getAudioFile(),
+                                    new UiUpdateBatcher.RowProgress(fraction, speed, remaining));
+                            uiUpdates.setProgress(batchProgress.getFraction());
+                        }
+
+                        @Override
+                        public void onStatusChange(AudioFile.ConversionStatus status) {
+                            uiUpdates.markDirty(task.getAudioFile());
+                        }
+                    });
+                    // Merged duplicates are finished by their original and need their own rows repainted
+                    for (AudioConversionTask duplicate : task.getDuplicates()) {
+                        duplicate.setProgressCallback(new AudioConversionTask.ProgressCallback() {
+                            @Override
+                            public void onProgress(double percentage, String message) {
+                            }
+
+                            @Override
+                            public void onStatusChange(AudioFile.ConversionStatus status) {
+                                uiUpdates.markDirty(duplicate.getAudioFile());
+                            }
+                        });
+                    }
 
-                for (Callable<Void> task : tasks) {
-                    completionService.submit(task);
+                    Future<Void> future = completionService.submit(task);
+                    entries.put(future, entry);
+                    tasksByFuture.put(future, task);
                 }
 
                 for (int i = 0; i < totalTasks; i++) {
+                    Future<Void> future = completionService.take();
+                    BatchProgress.Entry entry = entries.get(future);
                     try {
-                        Future<Void> future = completionService.take();
                         future.get();
+                        AudioConversionTask task = tasksByFuture.get(future);
+                        if (task.getAudioFile().getStatus() == AudioFile.ConversionStatus.SKIPPED) {
+                            // Already up to date - no audio was encoded for it
+                            entry.abandon();
+                        } else {
+                            entry.complete();
+                        }
                         completedTasks++;
 
-                        double progress = (double) completedTasks / totalTasks;
-                        updateProgress(progress, 1.0);
-                        updateMessage(String.format("Completed %d of %d files",
-                                completedTasks, totalTasks));
+                        uiUpdates.setProgress(batchProgress.getFraction());
+                        updateMessage(String.format("Completed %d of %d files - %.1fx realtime, ETA %s",
+                                completedTasks, totalTasks,
+                                batchProgress.getRealtimeFactor(),
+                                BatchProgress.formatDuration(batchProgress.getEtaSeconds())));
 
                     } catch (ExecutionException e) {
+                        entry.abandon();
                         Throwable cause = e.getCause();
-                        if (cause instanceof AudioConversionException) {
+                        if (cause instanceof AudioConversionException
+                                && ((AudioConversionException) cause).getErrorType()
+                                        == AudioConversionException.ErrorType.CANCELLED) {
+                            // The user asked for it - no error dialog
+                            continue;
+                        } else if (cause instanceof AudioConversionException) {
                             AudioConversionException ace = (AudioConversionException) cause;
                             final String errorMsg = ace.getUserFriendlyMessage();
                             Platform.runLater(() ->
@@ -755,33 +1009,67 @@ public class MainViewController {
                     }
                 }
 
-                return null;
+                ffmpegService.flushProbeCache();
+                ffmpegService.flushManifests();
+                if (journal != null) {
+                    journal.complete();
+                }
+                double achieved = (System.nanoTime() - batchStart) / 1_000_000_000.0;
+                return makespanSummary(queue, estimates, policy, workers, achieved);
             }
         };
 
-        progressBar.progressProperty().bind(masterTask.progressProperty());
+        // Indeterminate while durations are probed, until the first progress arrives
+        progressBar.setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+        runningBatch = null;
+        uiUpdates.clearRows();
+        throughputLabel.setText("");
         statusLabel.textProperty().bind(masterTask.messageProperty());
+        uiUpdates.start();
 
         masterTask.setOnSucceeded(e -> {
-            long successful = audioFiles.stream()
-                    .filter(f -> f.getStatus() == AudioFile.ConversionStatus.COMPLETED)
+            // Every row gets its final status, whichever updates were missed on the way
+            tasks.forEach(task -> uiUpdates.markDirty(task.getAudioFile()));
+            uiUpdates.stop();
+            // Only this run's files; a resumed batch also lists the ones finished before
+            long successful = tasks.stream()
+                    .filter(t -> t.getAudioFile().getStatus() == AudioFile.ConversionStatus.COMPLETED)
+                    .count();
+            long failed = tasks.stream()
+                    .filter(t -> t.getAudioFile().getStatus() == AudioFile.ConversionStatus.FAILED)
                     .count();
-            long failed = audioFiles.stream()
-                    .filter(f -> f.getStatus() == AudioFile.ConversionStatus.FAILED)
+            long cancelled = tasks.stream()
+                    .filter(t -> t.getAudioFile().getStatus() == AudioFile.ConversionStatus.CANCELLED)
                     .count();
+            long skipped = tasks.stream()
+                    .filter(t -> t.getAudioFile().getStatus() == AudioFile.ConversionStatus.SKIPPED)
+                    .count();
+            int earlier = audioFiles.size() - tasks.size();
+            activeTasks.clear();
 
             statusLabel.textProperty().unbind();
-            statusLabel.setText(String.format("Conversion complete: %d successful, %d failed",
-                    successful, failed));
+            statusLabel.setText(String.format("Conversion complete: %d successful, %d skipped, %d failed, %d cancelled",
+                    successful, skipped, failed, cancelled));
 
+            String resumed = earlier > 0
+                    ? String.format("\nAlready converted before the batch was resumed: %d", earlier)
+                    : "";
             showInfo("Conversion Complete",
-                    String.format("Successfully converted %d file(s).\nFailed: %d\n\nOutput location: %s",
-                            successful, failed, outputDir.getAbsolutePath()));
+                    String.format("Successfully converted %d file(s).\nSkipped (already up to date): %d\nFailed: %d\nCancelled: %d%s\n\n%s\n\nOutput location: %s",
+                            successful, skipped, failed, cancelled, resumed, masterTask.getValue(),
+                            outputDir.getAbsolutePath()));
 
             setUIDisabled(false);
         });
 
         masterTask.setOnFailed(e -> {
+            tasks.forEach(task -> uiUpdates.markDirty(task.getAudioFile()));
+            uiUpdates.stop();
+            if (journal != null) {
+                journal.close();
+            }
+            activeTasks.values().forEach(AudioConversionTask::cancel);
+            activeTasks.clear();
             statusLabel.textProperty().unbind();
             statusLabel.setText("Conversion failed");
             showError("Error", "An error occurred during conversion.");
@@ -793,9 +1081,72 @@ public class MainViewController {
         thread.start();
     }
 
+    /**
+     * Batch-wide throughput for the header of the file list, refreshed with the
+     * progress bar.
+     */
+    private void updateThroughputLabel() {
+        BatchProgress batch = runningBatch;
+        if (batch != null) {
+            throughputLabel.setText(String.format("%.1fx realtime (audio s/s), %s",
+                    batch.getRealtimeFactor(), BatchProgress.formatRate(batch.getBytesPerSecond())));
+        }
+    }
+
+    /**
+     * Compares the achieved wall time with what list scheduling predicts for the chosen
+     * order, using the per-process speed actually measured during this batch.
+     */
+    private String makespanSummary(List<AudioConversionTask> queue, Map<AudioConversionTask, Double> estimates,
+                                   SchedulingPolicy policy, int workers, double achievedSeconds) {
+        double audioSeconds = 0;
+        double busySeconds = 0;
+        for (AudioConversionTask task : queue) {
+            if (task.getElapsedSeconds() > 0 && !isSkipped(task)) {
+                audioSeconds += estimates.get(task);
+                busySeconds += task.getElapsedSeconds();
+            }
+        }
+        if (audioSeconds <= 0 || busySeconds <= 0) {
+            return String.format("Time: %s (%s)", BatchProgress.formatDuration(achievedSeconds), policy.getLabel());
+        }
+
+        double speed = audioSeconds / busySeconds;
+        List<Double> jobTimes = new ArrayList<>();
+        for (AudioConversionTask task : queue) {
+            jobTimes.add(isSkipped(task) ? 0.0 : estimates.get(task) / speed);
+        }
+        double expected = SchedulingPolicy.estimateMakespan(jobTimes, workers);
+
+        return String.format("Time: %s (expected %s with %s on %d workers)",
+                BatchProgress.formatDuration(achievedSeconds),
+                BatchProgress.formatDuration(expected),
+                policy.getLabel(), workers);
+    }
+
+    /**
+     * Cancels the running batch: queued files finish as CANCELLED without starting
+     * and running ffmpeg processes are killed.
+     */
+    private void onCancelConversion() {
+        cancelButton.setDisable(true);
+        activeTasks.values().forEach(AudioConversionTask::cancel);
+        statusLabel.textProperty().unbind();
+        statusLabel.setText("Cancelling...");
+    }
+
+    private CollisionPolicy getCollisionPolicy() {
+        return collisionComboBox.getValue() != null ? collisionComboBox.getValue() : CollisionPolicy.SUFFIX;
+    }
+
+    private static boolean isSkipped(AudioConversionTask task) {
+        return task.getAudioFile().getStatus() == AudioFile.ConversionStatus.SKIPPED;
+    }
+
     private void setUIDisabled(boolean disabled) {
         convertButton.setDisable(disabled);
         clearButton.setDisable(disabled);
+        cancelButton.setDisable(!disabled);
         formatComboBox.setDisable(disabled);
         qualitySlider.setDisable(disabled);
         bitrateComboBox.setDisable(disabled);
@@ -803,20 +1154,24 @@ public class MainViewController {
         variableBitrateRadio.setDisable(disabled);
         sampleRateComboBox.setDisable(disabled);
         channelsComboBox.setDisable(disabled);
+        schedulingComboBox.setDisable(disabled);
+        collisionComboBox.setDisable(disabled);
         showAdvancedCheckBox.setDisable(disabled);
         presetComboBox.setDisable(disabled);
         loadPresetButton.setDisable(disabled);
 
         if (!disabled) {
-            progressBar.progressProperty().unbind();
             progressBar.setProgress(0);
         }
     }
 
     @FXML
     private void onClear() {
+        fileImporter.cancel();
         audioFiles.clear();
         updateFilePreview();
+        uiUpdates.clearRows();
+        throughputLabel.setText("");
         fileListView.refresh();
         statusLabel.setText("Ready");
         progressBar.setProgress(0);
@@ -826,6 +1181,13 @@ public class MainViewController {
 
     @FXML
     private void onClose() {
+        // Keep the journal so the batch is offered for resuming on the next start
+        BatchJournal journal = activeJournal;
+        if (journal != null) {
+            journal.close();
+        }
+        // ffmpeg children would outlive the JVM
+        activeTasks.values().forEach(AudioConversionTask::cancel);
         if (executorService != null) {
             executorService.shutdown();
         }
@@ -0,0 +1,203 @@
+package se233.audioconverter.controller;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.control.ContentDisplay;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.util.Callback;
+import se233.audioconverter.model.AudioFile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Carries row and progress updates from the conversion workers to the UI without
+ * one Platform.runLater (and one ListView.refresh) per update. Workers only mark a
+ * row dirty or store the latest progress; once per animation pulse, if anything
+ * changed, the FX thread repaints just the cells showing a dirty row and applies
+ * the last progress value. However many updates arrive between two frames, the
+ * UI does one frame's worth of work.
+ *
+ * Rows must be shown through cellFactory(), whose cells are reused as the list
+ * scrolls and are never rebuilt by a refresh.
+ */
+public class UiUpdateBatcher {
+    // Marks "no progress since the last flush"; never a real progress value
+    private static final long NO_PROGRESS = Double.doubleToRawLongBits(Double.NaN);
+
+    private final Set<AudioFile> dirty = ConcurrentHashMap.newKeySet();
+    private final Map<AudioFile, RowProgress> rowProgress = new ConcurrentHashMap<>();
+    private final AtomicLong progress = new AtomicLong(NO_PROGRESS);
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final DoubleConsumer onProgress;
+    private final AnimationTimer timer;
+
+    // FX thread only. Weak, so cells the ListView drops are not kept alive here
+    private final Set<Row> cells = Collections.newSetFromMap(new WeakHashMap<>());
+    private BiConsumer<ListCell<AudioFile>, AudioFile> renderer;
+
+    /**
+     * @param onProgress run on the FX thread with the latest value passed to setProgress
+     */
+    public UiUpdateBatcher(DoubleConsumer onProgress) {
+        this.onProgress = onProgress;
+        this.timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                if (pending.getAndSet(false)) {
+                    flush();
+                }
+            }
+        };
+    }
+
+    /**
+     * Cells for the ListView whose rows this batcher repaints. The renderer paints
+     * one cell for a non-null item; empty cells are cleared here.
+     */
+    public Callback<ListView<AudioFile>, ListCell<AudioFile>> cellFactory(
+            BiConsumer<ListCell<AudioFile>, AudioFile> renderer) {
+        this.renderer = renderer;
+        return listView -> {
+            Row row = new Row();
+            cells.add(row);
+            return row;
+        };
+    }
+
+    /**
+     * The row's status or progress changed. Safe from any thread.
+     */
+    public void markDirty(AudioFile audioFile) {
+        dirty.add(audioFile);
+        pending.set(true);
+    }
+
+    /**
+     * Latest progress of one file; its row is repainted on the next pulse. Safe
+     * from any thread.
+     */
+    public void setRowProgress(AudioFile audioFile, RowProgress progress) {
+        rowProgress.put(audioFile, progress);
+        markDirty(audioFile);
+    }
+
+    /**
+     * The last progress set for the file in this batch, or null if none.
+     */
+    public RowProgress getRowProgress(AudioFile audioFile) {
+        return rowProgress.get(audioFile);
+    }
+
+    /**
+     * Forgets the per-file progress of the previous batch.
+     */
+    public void clearRows() {
+        rowProgress.clear();
+    }
+
+    /**
+     * Overall progress from 0 to 1; only the latest value before a frame is shown.
+     * Safe from any thread.
+     */
+    public void setProgress(double value) {
+        progress.set(Double.doubleToRawLongBits(value));
+        pending.set(true);
+    }
+
+    /**
+     * Starts flushing on every pulse. Must be called on the FX thread.
+     */
+    public void start() {
+        timer.start();
+    }
+
+    /**
+     * Stops flushing, after applying whatever is still pending. Must be called on
+     * the FX thread.
+     */
+    public void stop() {
+        timer.stop();
+        pending.set(false);
+        flush();
+    }
+
+    private void flush() {
+        Set<AudioFile> changed = new HashSet<>();
+        // Rows marked while this runs are either taken now or flagged for the next pulse
+        for (Iterator<AudioFile> it = dirty.iterator(); it.hasNext(); ) {
+            changed.add(it.next());
+            it.remove();
+        }
+        if (!changed.isEmpty()) {
+            List<Row> toPaint = new ArrayList<>();
+            for (Row row : cells) {
+                if (row.getItem() != null && changed.contains(row.getItem())) {
+                    toPaint.add(row);
+                }
+            }
+            for (Row row : toPaint) {
+                renderer.accept(row, row.getItem());
+            }
+        }
+
+        double value = Double.longBitsToDouble(progress.getAndSet(NO_PROGRESS));
+        if (!Double.isNaN(value)) {
+            onProgress.accept(value);
+        }
+    }
+
+    private class Row extends ListCell<AudioFile> {
+        @Override
+        protected void updateItem(AudioFile item, boolean empty) {
+            super.updateItem(item, empty);
+            if (empty || item == null) {
+                // The renderer's graphic is kept for reuse, just not shown
+                setText(null);
+                setStyle("");
+                setContentDisplay(ContentDisplay.TEXT_ONLY);
+            } else {
+                renderer.accept(this, item);
+            }
+        }
+    }
+
+    /**
+     * How far one file has got, with the encoder speed as a multiple of realtime
+     * and the seconds left at that speed (-1 while unknown).
+     */
+    public static final class RowProgress {
+        private final double fraction;
+        private final double speed;
+        private final double remainingSeconds;
+
+        public RowProgress(double fraction, double speed, double remainingSeconds) {
+            this.fraction = fraction;
+            this.speed = speed;
+            this.remainingSeconds = remainingSeconds;
+        }
+
+        public double getFraction() {
+            return fraction;
+        }
+
+        public double getSpeed() {
+            return speed;
+        }
+
+        public double getRemainingSeconds() {
+            return remainingSeconds;
+        }
+    }
+}
@@ -9,7 +9,10 @@ public class AudioConversionException extends Exception {
         FILE_NOT_FOUND("File not found"),
         FFMPEG_ERROR("FFmpeg conversion error"),
         INVALID_SETTINGS("Invalid conversion settings"),
-        IO_ERROR("Input/Output error");
+        IO_ERROR("Input/Output error"),
+        TIMEOUT("Conversion timed out"),
+        CANCELLED("Conversion cancelled"),
+        OUTPUT_CONFLICT("Output file name already in use");
 
         private final String message;
 
@@ -15,7 +15,9 @@ public class AudioFile {
         PENDING("Pending"),
         PROCESSING("Processing..."),
         COMPLETED("Completed"),
-        FAILED("Failed");
+        FAILED("Failed"),
+        CANCELLED("Cancelled"),
+        SKIPPED("Up to date");
 
         private final String displayName;
 
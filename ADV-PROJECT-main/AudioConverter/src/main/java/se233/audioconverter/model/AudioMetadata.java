@@ -0,0 +1,61 @@
+package se233.audioconverter.model;
+
+public class AudioMetadata {
+    private String formatName;
+    private String codecName;
+    private double duration; // seconds
+    private int sampleRate;
+    private int channels;
+    private long bitRate; // bits per second
+    private boolean hasAudioStream;
+
+    public AudioMetadata() {
+        // For Gson
+    }
+
+    public AudioMetadata(String formatName, String codecName, double duration,
+                         int sampleRate, int channels, long bitRate, boolean hasAudioStream) {
+        this.formatName = formatName;
+        this.codecName = codecName;
+        this.duration = duration;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitRate = bitRate;
+        this.hasAudioStream = hasAudioStream;
+    }
+
+    // Getters
+    public String getFormatName() {
+        return formatName;
+    }
+
+    public String getCodecName() {
+        return codecName;
+    }
+
+    public double getDuration() {
+        return duration;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public long getBitRate() {
+        return bitRate;
+    }
+
+    public boolean hasAudioStream() {
+        return hasAudioStream;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s/%s %.3fs %d Hz %dch %d bps",
+                formatName, codecName, duration, sampleRate, channels, bitRate);
+    }
+}
@@ -0,0 +1,69 @@
+package se233.audioconverter.model;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+
+/**
+ * What happens when two inputs would produce the same output file, e.g. a/song.wav
+ * and b/song.flac both becoming song.mp3.
+ */
+public enum CollisionPolicy {
+    MIRROR("Mirror Source Folders"),
+    SUFFIX("Add Number Suffix"),
+    SKIP("Skip File");
+
+    private final String label;
+
+    CollisionPolicy(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Directory the outputs of one input go to. MIRROR recreates the input's folder
+     * relative to the batch's source root; the other policies use the output
+     * directory itself.
+     */
+    public String outputDirectory(String outputDir, Path sourceRoot, String inputPath) {
+        if (this != MIRROR || sourceRoot == null) {
+            return outputDir;
+        }
+        Path parent = Paths.get(inputPath).toAbsolutePath().normalize().getParent();
+        if (parent == null || !parent.startsWith(sourceRoot)) {
+            return outputDir;
+        }
+        return Paths.get(outputDir).resolve(sourceRoot.relativize(parent)).toString();
+    }
+
+    /**
+     * Deepest directory containing every given file, or null if they share none.
+     */
+    public static Path commonRoot(Collection<String> filePaths) {
+        Path root = null;
+        for (String filePath : filePaths) {
+            Path parent = Paths.get(filePath).toAbsolutePath().normalize().getParent();
+            if (parent == null) {
+                return null;
+            }
+            if (root == null) {
+                root = parent;
+            }
+            while (root != null && !parent.startsWith(root)) {
+                root = root.getParent();
+            }
+            if (root == null) {
+                return null;
+            }
+        }
+        return root;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
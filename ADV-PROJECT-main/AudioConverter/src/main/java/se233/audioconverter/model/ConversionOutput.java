@@ -0,0 +1,49 @@
+package se233.audioconverter.model;
+
+import se233.audioconverter.exception.AudioConversionException;
+
+/**
+ * One target of a conversion and how it ended.
+ */
+public class ConversionOutput {
+    private final ConversionSettings settings;
+    private final String outputPath;
+    private AudioConversionException error;
+    private boolean skipped;
+
+    public ConversionOutput(ConversionSettings settings, String outputPath) {
+        this.settings = settings;
+        this.outputPath = outputPath;
+    }
+
+    public ConversionSettings getSettings() {
+        return settings;
+    }
+
+    public String getOutputPath() {
+        return outputPath;
+    }
+
+    public AudioConversionException getError() {
+        return error;
+    }
+
+    public void setError(AudioConversionException error) {
+        this.error = error;
+    }
+
+    /**
+     * True when the output was already up to date and ffmpeg was not run for it.
+     */
+    public boolean isSkipped() {
+        return skipped;
+    }
+
+    public void setSkipped(boolean skipped) {
+        this.skipped = skipped;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+}
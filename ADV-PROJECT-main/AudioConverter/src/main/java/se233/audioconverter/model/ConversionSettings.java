@@ -1,5 +1,8 @@
 package se233.audioconverter.model;
 
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
 
@@ -242,6 +245,11 @@ public class ConversionSettings {
     private BitrateMode bitrateMode;
     private int vbrQuality; // VBR quality (0-5, MP3 only)
 
+    // Set on snapshots only; not serialized, so settings read back from JSON are editable
+    private transient boolean frozen;
+    private transient String canonicalForm;
+    private transient String digest;
+
     public ConversionSettings() {
         // Default settings
         this.outputFormat = OutputFormat.MP3;
@@ -259,6 +267,7 @@ public class ConversionSettings {
     }
 
     public void setOutputFormat(OutputFormat outputFormat) {
+        checkMutable();
         this.outputFormat = outputFormat;
         // Reset custom bitrate when format changes
         this.customBitrate = null;
@@ -269,6 +278,7 @@ public class ConversionSettings {
     }
 
     public void setQuality(Quality quality) {
+        checkMutable();
         this.quality = quality;
     }
 
@@ -277,6 +287,7 @@ public class ConversionSettings {
     }
 
     public void setCustomBitrate(Integer customBitrate) {
+        checkMutable();
         this.customBitrate = customBitrate;
     }
 
@@ -293,6 +304,7 @@ public class ConversionSettings {
     }
 
     public void setSampleRate(SampleRate sampleRate) {
+        checkMutable();
         this.sampleRate = sampleRate;
     }
 
@@ -301,6 +313,7 @@ public class ConversionSettings {
     }
 
     public void setChannels(Channels channels) {
+        checkMutable();
         this.channels = channels;
     }
 
@@ -309,6 +322,7 @@ public class ConversionSettings {
     }
 
     public void setBitrateMode(BitrateMode bitrateMode) {
+        checkMutable();
         this.bitrateMode = bitrateMode;
     }
 
@@ -317,11 +331,108 @@ public class ConversionSettings {
     }
 
     public void setVbrQuality(int vbrQuality) {
+        checkMutable();
         this.vbrQuality = vbrQuality;
     }
 
+    /**
+     * Canonical description of what ffmpeg is asked to produce. Fields that do not
+     * reach the encoder (e.g. a quality preset overridden by a custom bitrate, or a
+     * bitrate for a lossless format) are left out, so equal outputs compare equal.
+     */
+    public String getCanonicalForm() {
+        if (canonicalForm != null) {
+            return canonicalForm;
+        }
+        StringBuilder canonical = new StringBuilder()
+                .append("format=").append(outputFormat.getExtension())
+                .append(";codec=").append(outputFormat.getCodec())
+                .append(";channels=").append(channels.getCount())
+                .append(";rate=").append(sampleRate.getRate());
+        if (outputFormat.supportsBitrate()) {
+            if (outputFormat == OutputFormat.MP3 && bitrateMode == BitrateMode.VARIABLE) {
+                canonical.append(";vbr=").append(vbrQuality);
+            } else {
+                canonical.append(";bitrate=").append(getEffectiveBitrate());
+            }
+        }
+        return canonical.toString();
+    }
+
+    /**
+     * SHA-256 of the canonical form. It identifies the settings wherever something is
+     * cached or recorded per settings: output manifests, compiled ffmpeg arguments
+     * and JFR events.
+     */
+    public String digest() {
+        if (digest != null) {
+            return digest;
+        }
+        return Hashing.sha256().hashString(getCanonicalForm(), StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * Immutable copy of these settings, taken when a batch is submitted so later edits
+     * in the UI cannot reach jobs that are already queued or running. Its canonical
+     * form and digest are computed once. A snapshot returns itself.
+     */
+    public ConversionSettings snapshot() {
+        if (frozen) {
+            return this;
+        }
+        ConversionSettings snapshot = new ConversionSettings();
+        snapshot.outputFormat = outputFormat;
+        snapshot.quality = quality;
+        snapshot.customBitrate = customBitrate;
+        snapshot.sampleRate = sampleRate;
+        snapshot.channels = channels;
+        snapshot.bitrateMode = bitrateMode;
+        snapshot.vbrQuality = vbrQuality;
+        snapshot.canonicalForm = snapshot.getCanonicalForm();
+        snapshot.digest = snapshot.digest();
+        snapshot.frozen = true;
+        return snapshot;
+    }
+
+    public boolean isSnapshot() {
+        return frozen;
+    }
+
+    private void checkMutable() {
+        if (frozen) {
+            throw new IllegalStateException("Settings snapshots cannot be changed");
+        }
+    }
+
+    /**
+     * Settings are equal when they ask ffmpeg for the same output (equal canonical
+     * forms). Only snapshots should be used as hash keys.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ConversionSettings)) {
+            return false;
+        }
+        return getCanonicalForm().equals(((ConversionSettings) o).getCanonicalForm());
+    }
+
+    @Override
+    public int hashCode() {
+        return getCanonicalForm().hashCode();
+    }
+
+    public static ConversionSettings fromPreset(ConversionPreset preset) {
+        ConversionSettings settings = new ConversionSettings();
+        settings.loadFromPreset(preset);
+        return settings;
+    }
+
     // Load settings from preset
     public void loadFromPreset(ConversionPreset preset) {
+        checkMutable();
         this.outputFormat = preset.getFormat();
         this.sampleRate = preset.getSampleRate();
         this.channels = preset.getChannels();
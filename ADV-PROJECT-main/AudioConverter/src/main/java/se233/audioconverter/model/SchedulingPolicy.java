@@ -0,0 +1,65 @@
+package se233.audioconverter.model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.ToDoubleFunction;
+
+public enum SchedulingPolicy {
+    LONGEST_FIRST("Longest First (fastest batch)"),
+    SHORTEST_FIRST("Shortest First (first results sooner)"),
+    LIST_ORDER("List Order");
+
+    private final String label;
+
+    SchedulingPolicy(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Returns the jobs in the order they should be queued, given an estimated cost per job.
+     */
+    public <T> List<T> order(List<T> jobs, ToDoubleFunction<T> cost) {
+        List<T> ordered = new ArrayList<>(jobs);
+        switch (this) {
+            case LONGEST_FIRST:
+                ordered.sort(Comparator.comparingDouble(cost).reversed());
+                break;
+            case SHORTEST_FIRST:
+                ordered.sort(Comparator.comparingDouble(cost));
+                break;
+            case LIST_ORDER:
+            default:
+                break;
+        }
+        return ordered;
+    }
+
+    /**
+     * Makespan of greedy list scheduling: each job, in queue order, starts on
+     * whichever of the workers frees up first.
+     */
+    public static double estimateMakespan(List<Double> jobTimes, int workers) {
+        PriorityQueue<Double> finishTimes = new PriorityQueue<>();
+        for (int i = 0; i < Math.max(1, workers); i++) {
+            finishTimes.add(0.0);
+        }
+        double makespan = 0;
+        for (double time : jobTimes) {
+            double finish = finishTimes.poll() + time;
+            finishTimes.add(finish);
+            makespan = Math.max(makespan, finish);
+        }
+        return makespan;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
@@ -0,0 +1,431 @@
+package se233.audioconverter.service;
+
+import se233.audioconverter.model.AudioMetadata;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads duration, sample rate and channel count straight from the container headers
+ * (RIFF fmt chunk, FLAC STREAMINFO, MP3 frame header with Xing/VBRI, MP4 mvhd/stsd)
+ * so most inputs never need an ffprobe process. Only the header bytes are read.
+ * Every reader returns null when it is not sure, and the caller falls back to ffprobe.
+ */
+public final class AudioHeaderReader {
+    private static final int MP3_SYNC_SCAN_LIMIT = 64 * 1024;
+    private static final int MP4_MAX_DEPTH = 8;
+
+    private static final int[][] MP3_BITRATES_V1 = {
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448}, // Layer I
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},    // Layer II
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320}      // Layer III
+    };
+    private static final int[][] MP3_BITRATES_V2 = {
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},    // Layer I
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},         // Layer II & III
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+    };
+    private static final int[] MP3_SAMPLE_RATES_V1 = {44100, 48000, 32000};
+
+    private AudioHeaderReader() {
+    }
+
+    /**
+     * Returns the metadata of the file, or null if the header could not be parsed.
+     */
+    public static AudioMetadata read(Path path) {
+        String name = path.getFileName().toString().toLowerCase();
+        int lastDot = name.lastIndexOf('.');
+        String extension = lastDot > 0 ? name.substring(lastDot + 1) : "";
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            switch (extension) {
+                case "wav":
+                    return readWav(channel);
+                case "flac":
+                    return readFlac(channel);
+                case "mp3":
+                    return readMp3(channel);
+                case "m4a":
+                    return readMp4(channel);
+                default:
+                    return null;
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // ---------------------------------------------------------------- WAV
+
+    private static AudioMetadata readWav(FileChannel channel) throws IOException {
+        ByteBuffer header = read(channel, 0, 12, ByteOrder.LITTLE_ENDIAN);
+        if (header == null || !tag(header, 0, "RIFF") || !tag(header, 8, "WAVE")) {
+            return null;
+        }
+
+        long fileSize = channel.size();
+        long position = 12;
+        int formatTag = -1;
+        int channels = 0;
+        int sampleRate = 0;
+        long byteRate = 0;
+        int bitsPerSample = 0;
+
+        while (position + 8 <= fileSize) {
+            ByteBuffer chunk = read(channel, position, 8, ByteOrder.LITTLE_ENDIAN);
+            if (chunk == null) {
+                return null;
+            }
+            long chunkSize = chunk.getInt(4) & 0xFFFFFFFFL;
+            long body = position + 8;
+
+            if (tag(chunk, 0, "fmt ")) {
+                ByteBuffer fmt = read(channel, body, (int) Math.min(chunkSize, 40), ByteOrder.LITTLE_ENDIAN);
+                if (fmt == null || fmt.limit() < 16) {
+                    return null;
+                }
+                formatTag = fmt.getShort(0) & 0xFFFF;
+                channels = fmt.getShort(2) & 0xFFFF;
+                sampleRate = fmt.getInt(4);
+                byteRate = fmt.getInt(8) & 0xFFFFFFFFL;
+                bitsPerSample = fmt.getShort(14) & 0xFFFF;
+                if (formatTag == 0xFFFE && fmt.limit() >= 26) {
+                    // WAVE_FORMAT_EXTENSIBLE: the real tag leads the sub-format GUID
+                    formatTag = fmt.getShort(24) & 0xFFFF;
+                }
+            } else if (tag(chunk, 0, "data")) {
+                if (formatTag < 0 || byteRate == 0) {
+                    return null;
+                }
+                // Streams written without a final size use 0 or 0xFFFFFFFF
+                long dataSize = chunkSize == 0 || chunkSize == 0xFFFFFFFFL || body + chunkSize > fileSize
+                        ? fileSize - body
+                        : chunkSize;
+                String codec = wavCodec(formatTag, bitsPerSample);
+                if (codec == null) {
+                    return null;
+                }
+                return new AudioMetadata("wav", codec, (double) dataSize / byteRate,
+                        sampleRate, channels, byteRate * 8, true);
+            }
+            position = body + chunkSize + (chunkSize & 1); // chunks are word aligned
+        }
+        return null;
+    }
+
+    private static String wavCodec(int formatTag, int bitsPerSample) {
+        if (formatTag == 1) {
+            switch (bitsPerSample) {
+                case 8:
+                    return "pcm_u8";
+                case 16:
+                    return "pcm_s16le";
+                case 24:
+                    return "pcm_s24le";
+                case 32:
+                    return "pcm_s32le";
+                default:
+                    return null;
+            }
+        }
+        if (formatTag == 3) {
+            return bitsPerSample == 64 ? "pcm_f64le" : "pcm_f32le";
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------------- FLAC
+
+    private static AudioMetadata readFlac(FileChannel channel) throws IOException {
+        long position = skipId3v2(channel);
+        ByteBuffer marker = read(channel, position, 4, ByteOrder.BIG_ENDIAN);
+        if (marker == null || !tag(marker, 0, "fLaC")) {
+            return null;
+        }
+
+        // STREAMINFO is always the first metadata block
+        ByteBuffer block = read(channel, position + 4, 4 + 34, ByteOrder.BIG_ENDIAN);
+        if (block == null || (block.get(0) & 0x7F) != 0) {
+            return null;
+        }
+
+        // bytes 10..17 of STREAMINFO: 20 bits rate, 3 bits channels-1, 5 bits bps-1, 36 bits samples
+        long packed = block.getLong(4 + 10);
+        int sampleRate = (int) (packed >>> 44);
+        int channels = (int) ((packed >>> 41) & 0x7) + 1;
+        long totalSamples = packed & 0xFFFFFFFFFL;
+        if (sampleRate == 0 || totalSamples == 0) {
+            return null;
+        }
+
+        double duration = (double) totalSamples / sampleRate;
+        long bitRate = (long) (channel.size() * 8 / duration);
+        return new AudioMetadata("flac", "flac", duration, sampleRate, channels, bitRate, true);
+    }
+
+    // ---------------------------------------------------------------- MP3
+
+    private static AudioMetadata readMp3(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        long start = skipId3v2(channel);
+        ByteBuffer scan = read(channel, start, (int) Math.min(MP3_SYNC_SCAN_LIMIT, fileSize - start),
+                ByteOrder.BIG_ENDIAN);
+        if (scan == null) {
+            return null;
+        }
+
+        for (int i = 0; i + 4 <= scan.limit(); i++) {
+            int header = scan.getInt(i);
+            if ((header & 0xFFE00000) != 0xFFE00000) {
+                continue;
+            }
+            int versionBits = (header >>> 19) & 0x3;  // 0 = 2.5, 2 = 2, 3 = 1
+            int layerBits = (header >>> 17) & 0x3;    // 1 = III, 2 = II, 3 = I
+            int bitrateIndex = (header >>> 12) & 0xF;
+            int sampleRateIndex = (header >>> 10) & 0x3;
+            if (versionBits == 1 || layerBits == 0 || bitrateIndex == 0 || bitrateIndex == 15
+                    || sampleRateIndex == 3) {
+                continue;
+            }
+
+            boolean mpeg1 = versionBits == 3;
+            int layer = 4 - layerBits;
+            int sampleRate = MP3_SAMPLE_RATES_V1[sampleRateIndex] >> (mpeg1 ? 0 : versionBits == 2 ? 1 : 2);
+            int bitrateKbps = mpeg1
+                    ? MP3_BITRATES_V1[layer - 1][bitrateIndex]
+                    : MP3_BITRATES_V2[layer - 1][bitrateIndex];
+            boolean mono = ((header >>> 6) & 0x3) == 3;
+            int samplesPerFrame = layer == 1 ? 384 : (layer == 3 && !mpeg1) ? 576 : 1152;
+            String codec = layer == 3 ? "mp3" : layer == 2 ? "mp2" : "mp1";
+
+            long frameStart = start + i;
+            // Sync bits turn up in tags and junk too: only trust a frame the next one follows
+            int padding = (header >>> 9) & 0x1;
+            int frameLength = layer == 1
+                    ? (12 * bitrateKbps * 1000 / sampleRate + padding) * 4
+                    : (layer == 3 && !mpeg1 ? 72 : 144) * bitrateKbps * 1000 / sampleRate + padding;
+            ByteBuffer next = read(channel, frameStart + frameLength, 4, ByteOrder.BIG_ENDIAN);
+            if (next == null || next.limit() < 4 || !isSameStream(header, next.getInt(0))) {
+                return null;
+            }
+            long audioBytes = fileSize - frameStart - id3v1Size(channel);
+
+            // Xing/Info header sits after the side information of the first frame,
+            // and after its CRC when the frame is protected (bit clear)
+            int crc = ((header >>> 16) & 0x1) == 0 ? 2 : 0;
+            int sideInfo = mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+            ByteBuffer xing = read(channel, frameStart + 4 + crc + sideInfo, 12, ByteOrder.BIG_ENDIAN);
+            if (xing != null && (tag(xing, 0, "Xing") || tag(xing, 0, "Info"))) {
+                int flags = xing.getInt(4);
+                if ((flags & 0x1) != 0) {
+                    long frames = xing.getInt(8) & 0xFFFFFFFFL;
+                    return mp3Metadata(codec, frames, samplesPerFrame, sampleRate, mono, audioBytes);
+                }
+            }
+
+            // VBRI is always 32 bytes after the header, CRC or not
+            ByteBuffer vbri = read(channel, frameStart + 4 + 32, 18, ByteOrder.BIG_ENDIAN);
+            if (vbri != null && tag(vbri, 0, "VBRI")) {
+                long frames = vbri.getInt(14) & 0xFFFFFFFFL;
+                return mp3Metadata(codec, frames, samplesPerFrame, sampleRate, mono, audioBytes);
+            }
+
+            // No VBR header: assume constant bitrate across the whole stream
+            double duration = audioBytes * 8.0 / (bitrateKbps * 1000.0);
+            return new AudioMetadata("mp3", codec, duration, sampleRate, mono ? 1 : 2,
+                    bitrateKbps * 1000L, true);
+        }
+        return null;
+    }
+
+    /**
+     * Whether the word is a frame header of the same stream: sync, then the same
+     * version, layer and sample rate.
+     */
+    private static boolean isSameStream(int header, int candidate) {
+        int mask = 0xFFE00000 | (0x3 << 19) | (0x3 << 17) | (0x3 << 10);
+        return (candidate & mask) == (header & mask);
+    }
+
+    private static AudioMetadata mp3Metadata(String codec, long frames, int samplesPerFrame,
+                                             int sampleRate, boolean mono, long audioBytes) {
+        if (frames == 0) {
+            return null;
+        }
+        double duration = (double) frames * samplesPerFrame / sampleRate;
+        return new AudioMetadata("mp3", codec, duration, sampleRate, mono ? 1 : 2,
+                (long) (audioBytes * 8 / duration), true);
+    }
+
+    private static long id3v1Size(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < 128) {
+            return 0;
+        }
+        ByteBuffer tail = read(channel, size - 128, 3, ByteOrder.BIG_ENDIAN);
+        return tail != null && tag(tail, 0, "TAG") ? 128 : 0;
+    }
+
+    // ---------------------------------------------------------------- MP4 / M4A
+
+    private static AudioMetadata readMp4(FileChannel channel) throws IOException {
+        Mp4Info info = new Mp4Info();
+        walkAtoms(channel, 0, channel.size(), 0, info);
+        if (info.timescale == 0 || info.duration == 0 || info.codec == null) {
+            return null;
+        }
+        double duration = (double) info.duration / info.timescale;
+        long bitRate = (long) (channel.size() * 8 / duration);
+        return new AudioMetadata("mov,mp4,m4a,3gp,3g2,mj2", info.codec, duration,
+                info.sampleRate, info.channels, bitRate, true);
+    }
+
+    private static class Mp4Info {
+        long timescale;
+        long duration;
+        String codec;
+        int sampleRate;
+        int channels;
+    }
+
+    private static void walkAtoms(FileChannel channel, long start, long end, int depth, Mp4Info info)
+            throws IOException {
+        long position = start;
+        while (position + 8 <= end && (info.codec == null || info.timescale == 0)) {
+            ByteBuffer header = read(channel, position, 16, ByteOrder.BIG_ENDIAN);
+            if (header == null || header.limit() < 8) {
+                return;
+            }
+            long size = header.getInt(0) & 0xFFFFFFFFL;
+            String type = new String(new byte[]{header.get(4), header.get(5), header.get(6), header.get(7)},
+                    StandardCharsets.ISO_8859_1);
+            int headerSize = 8;
+            if (size == 1) {
+                if (header.limit() < 16) {
+                    return;
+                }
+                size = header.getLong(8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = end - position;
+            }
+            if (size < headerSize) {
+                return;
+            }
+            long body = position + headerSize;
+            long atomEnd = Math.min(position + size, end);
+
+            switch (type) {
+                case "moov":
+                case "trak":
+                case "mdia":
+                case "minf":
+                case "stbl":
+                    if (depth < MP4_MAX_DEPTH) {
+                        walkAtoms(channel, body, atomEnd, depth + 1, info);
+                    }
+                    break;
+                case "mvhd":
+                    readMvhd(channel, body, info);
+                    break;
+                case "stsd":
+                    readStsd(channel, body, info);
+                    break;
+                default:
+                    break;
+            }
+            position = position + size;
+        }
+    }
+
+    private static void readMvhd(FileChannel channel, long body, Mp4Info info) throws IOException {
+        ByteBuffer mvhd = read(channel, body, 32, ByteOrder.BIG_ENDIAN);
+        if (mvhd == null || mvhd.limit() < 20) {
+            return;
+        }
+        int version = mvhd.get(0);
+        if (version == 1 && mvhd.limit() >= 32) {
+            info.timescale = mvhd.getInt(20) & 0xFFFFFFFFL;
+            info.duration = mvhd.getLong(24);
+        } else {
+            info.timescale = mvhd.getInt(12) & 0xFFFFFFFFL;
+            info.duration = mvhd.getInt(16) & 0xFFFFFFFFL;
+        }
+    }
+
+    private static void readStsd(FileChannel channel, long body, Mp4Info info) throws IOException {
+        // version/flags(4) entry_count(4), then the first sample entry
+        ByteBuffer stsd = read(channel, body, 8 + 36, ByteOrder.BIG_ENDIAN);
+        if (stsd == null || stsd.limit() < 8 + 36) {
+            return;
+        }
+        String format = new String(new byte[]{stsd.get(12), stsd.get(13), stsd.get(14), stsd.get(15)},
+                StandardCharsets.ISO_8859_1);
+        String codec;
+        switch (format) {
+            case "mp4a":
+                codec = "aac";
+                break;
+            case "alac":
+                codec = "alac";
+                break;
+            default:
+                return; // not an audio track we recognise
+        }
+        // AudioSampleEntry: reserved(6) ref(2) version(2) revision(2) vendor(4)
+        // channels(2) sample_size(2) compression(2) packet(2) rate(16.16)
+        info.codec = codec;
+        info.channels = stsd.getShort(8 + 24) & 0xFFFF;
+        info.sampleRate = (stsd.getInt(8 + 32) >>> 16) & 0xFFFF;
+    }
+
+    // ---------------------------------------------------------------- helpers
+
+    /**
+     * Returns the offset just past an ID3v2 tag, or 0 if the file has none.
+     */
+    private static long skipId3v2(FileChannel channel) throws IOException {
+        ByteBuffer id3 = read(channel, 0, 10, ByteOrder.BIG_ENDIAN);
+        if (id3 == null || id3.limit() < 10 || !tag(id3, 0, "ID3")) {
+            return 0;
+        }
+        int size = ((id3.get(6) & 0x7F) << 21) | ((id3.get(7) & 0x7F) << 14)
+                | ((id3.get(8) & 0x7F) << 7) | (id3.get(9) & 0x7F);
+        boolean footer = (id3.get(5) & 0x10) != 0;
+        return 10 + size + (footer ? 10 : 0);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length, ByteOrder order)
+            throws IOException {
+        if (length <= 0 || position < 0 || position >= channel.size()) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(order);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer.limit() > 0 ? buffer : null;
+    }
+
+    private static boolean tag(ByteBuffer buffer, int offset, String tag) {
+        if (buffer.limit() < offset + tag.length()) {
+            return false;
+        }
+        for (int i = 0; i < tag.length(); i++) {
+            if (buffer.get(offset + i) != (byte) tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,373 @@
+package se233.audioconverter.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.CollisionPolicy;
+import se233.audioconverter.model.ConversionOutput;
+import se233.audioconverter.model.ConversionSettings;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
+
+/**
+ * Append-only on-disk record of a running batch, so a batch interrupted by a crash or
+ * a closed window can be resumed. The first line defines the batch (output directory,
+ * targets, input files); every later line is one state transition of one file.
+ *
+ * Writes are group-committed: callers only queue a line, and a writer thread appends
+ * whatever has queued up and forces it to disk with a single fsync. A crash can lose
+ * the last few transitions, which only means those files are converted again.
+ *
+ * The journal is deleted when the batch ends. A journal left behind whose file lock
+ * is free belongs to an interrupted batch; see findInterrupted().
+ */
+public class BatchJournal {
+    private static final Path DEFAULT_DIRECTORY = Paths.get(
+            System.getProperty("user.home"), ".audioconverter", "journal");
+    private static final String EXTENSION = ".jsonl";
+    private static final Gson GSON = new Gson();
+    // Queued by close() to stop the writer; journal lines are never empty
+    private static final String END = "";
+
+    // Journals open in this JVM; probing them would drop our own lock (POSIX locks are per process)
+    private static final Set<Path> OPEN = ConcurrentHashMap.newKeySet();
+
+    private final Path file;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final Map<String, Integer> indexByPath = new HashMap<>();
+    private final BlockingQueue<String> pending = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    static final class Header {
+        String id;
+        long created;
+        String outputPath;
+        // Root the mirrored output layout is relative to; null when the files share none
+        String sourceRoot;
+        CollisionPolicy collision;
+        List<ConversionSettings> targets;
+        List<String> files;
+
+        Header() {
+            // For Gson
+        }
+    }
+
+    static final class Record {
+        int file;
+        AudioFile.ConversionStatus status;
+        List<String> outputs;
+
+        Record() {
+            // For Gson
+        }
+    }
+
+    private BatchJournal(Path file, FileChannel channel, FileLock lock, List<String> files) {
+        this.file = file;
+        this.channel = channel;
+        this.lock = lock;
+        for (int i = 0; i < files.size(); i++) {
+            indexByPath.put(files.get(i), i);
+        }
+        OPEN.add(file);
+        this.writer = new Thread(this::writeLoop, "batch-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Starts the journal of a new batch in ~/.audioconverter/journal. The source root
+     * and collision policy are kept so a resume lays outputs out exactly as this run
+     * does, even if some inputs are gone by then.
+     */
+    public static BatchJournal create(String outputPath, Path sourceRoot, CollisionPolicy collision,
+                                      List<ConversionSettings> targets, List<AudioFile> files)
+            throws IOException {
+        Files.createDirectories(DEFAULT_DIRECTORY);
+        Header header = new Header();
+        header.id = System.currentTimeMillis() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        header.created = System.currentTimeMillis();
+        header.outputPath = outputPath;
+        header.sourceRoot = sourceRoot != null ? sourceRoot.toString() : null;
+        header.collision = collision;
+        header.targets = new ArrayList<>(targets);
+        header.files = files.stream().map(AudioFile::getFilePath).collect(Collectors.toList());
+
+        Path file = DEFAULT_DIRECTORY.resolve(header.id + EXTENSION);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        FileLock lock = channel.lock();
+        // The definition is the one line that has to be durable before any work starts
+        channel.write(ByteBuffer.wrap((GSON.toJson(header) + "\n").getBytes(StandardCharsets.UTF_8)));
+        channel.force(false);
+        return new BatchJournal(file, channel, lock, header.files);
+    }
+
+    /**
+     * Queues a state transition; returns immediately.
+     */
+    public void record(AudioFile audioFile, AudioFile.ConversionStatus status, List<ConversionOutput> outputs) {
+        Integer index = indexByPath.get(audioFile.getFilePath());
+        if (closed || index == null) {
+            return;
+        }
+        Record record = new Record();
+        record.file = index;
+        record.status = status;
+        if (outputs != null && !outputs.isEmpty()) {
+            record.outputs = outputs.stream().map(ConversionOutput::getOutputPath).collect(Collectors.toList());
+        }
+        pending.add(GSON.toJson(record));
+    }
+
+    /**
+     * The batch ran to its end: the journal is no longer needed.
+     */
+    public void complete() {
+        if (close()) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // Only costs a resume prompt that finds nothing left to do
+            }
+        }
+    }
+
+    /**
+     * Writes what is queued and releases the journal but keeps it on disk, so the
+     * batch is offered for resuming next time. Returns false if already closed.
+     */
+    public boolean close() {
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+        }
+        pending.add(END);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            lock.release();
+            channel.close();
+        } catch (IOException e) {
+            // Everything written has been forced already
+        }
+        OPEN.remove(file);
+        return true;
+    }
+
+    private void writeLoop() {
+        List<String> lines = new ArrayList<>();
+        boolean end = false;
+        while (!end) {
+            try {
+                lines.add(pending.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            // Everything that queued up during the last fsync goes out with the next one
+            pending.drainTo(lines);
+            StringBuilder batch = new StringBuilder();
+            for (String line : lines) {
+                if (line.isEmpty()) {
+                    end = true;
+                } else {
+                    batch.append(line).append('\n');
+                }
+            }
+            lines.clear();
+            if (batch.length() == 0) {
+                continue;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                // Disk full or gone - the batch carries on, it just cannot be resumed
+                return;
+            }
+        }
+    }
+
+    /**
+     * Journals left behind by batches that did not finish, newest first. Journals
+     * still locked by a running batch (this or another process) are left out.
+     */
+    public static List<Interrupted> findInterrupted() {
+        List<Interrupted> batches = new ArrayList<>();
+        if (!Files.isDirectory(DEFAULT_DIRECTORY)) {
+            return batches;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(DEFAULT_DIRECTORY, "*" + EXTENSION)) {
+            for (Path file : files) {
+                Interrupted batch = Interrupted.read(file);
+                if (batch != null) {
+                    batches.add(batch);
+                }
+            }
+        } catch (IOException e) {
+            // Nothing to offer
+        }
+        batches.sort(Comparator.comparingLong(Interrupted::getCreated).reversed());
+        return batches;
+    }
+
+    /**
+     * A batch read back from its journal, with the last recorded status of each file.
+     */
+    public static final class Interrupted {
+        private final Path file;
+        private final Header header;
+        private final Map<String, AudioFile.ConversionStatus> statuses;
+
+        private Interrupted(Path file, Header header, Map<String, AudioFile.ConversionStatus> statuses) {
+            this.file = file;
+            this.header = header;
+            this.statuses = statuses;
+        }
+
+        static Interrupted read(Path file) {
+            if (OPEN.contains(file)) {
+                return null;
+            }
+            try (FileChannel probe = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                FileLock lock = probe.tryLock();
+                if (lock == null) {
+                    return null;
+                }
+                lock.release();
+            } catch (OverlappingFileLockException | IOException e) {
+                return null;
+            }
+
+            Header header = null;
+            Map<String, AudioFile.ConversionStatus> statuses = new HashMap<>();
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                header = GSON.fromJson(reader.readLine(), Header.class);
+                if (header == null || header.files == null || header.targets == null) {
+                    return null;
+                }
+                header.targets.replaceAll(ConversionSettings::snapshot);
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        Record record = GSON.fromJson(line, Record.class);
+                        if (record != null && record.status != null
+                                && record.file >= 0 && record.file < header.files.size()) {
+                            statuses.put(header.files.get(record.file), record.status);
+                        }
+                    } catch (JsonParseException e) {
+                        // A torn last line from the crash
+                    }
+                }
+            } catch (IOException | JsonParseException e) {
+                return header == null ? null : new Interrupted(file, header, statuses);
+            }
+            return new Interrupted(file, header, statuses);
+        }
+
+        public long getCreated() {
+            return header.created;
+        }
+
+        public String getOutputPath() {
+            return header.outputPath;
+        }
+
+        /**
+         * The source root the original run used. Journals written before it was
+         * recorded get it recomputed from the full original file list, as that run did.
+         */
+        public Path getSourceRoot() {
+            return header.sourceRoot != null
+                    ? Paths.get(header.sourceRoot)
+                    : CollisionPolicy.commonRoot(header.files);
+        }
+
+        /**
+         * The collision policy the original run used. Journals written before it was
+         * recorded get the default, SUFFIX.
+         */
+        public CollisionPolicy getCollisionPolicy() {
+            return header.collision != null ? header.collision : CollisionPolicy.SUFFIX;
+        }
+
+        public List<ConversionSettings> getTargets() {
+            return header.targets;
+        }
+
+        public List<String> getFiles() {
+            return header.files;
+        }
+
+        /**
+         * Whether the file finished (converted or already up to date) before the
+         * batch was interrupted.
+         */
+        public boolean isDone(String filePath) {
+            AudioFile.ConversionStatus status = statuses.get(filePath);
+            return status == AudioFile.ConversionStatus.COMPLETED
+                    || status == AudioFile.ConversionStatus.SKIPPED;
+        }
+
+        public int getDoneCount() {
+            return (int) header.files.stream().filter(this::isDone).count();
+        }
+
+        /**
+         * Takes the journal over to continue appending to it.
+         */
+        public BatchJournal resume() throws IOException {
+            if (OPEN.contains(file)) {
+                throw new IOException("Batch is already being resumed: " + file);
+            }
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                channel.close();
+                throw new IOException("Batch is already being resumed: " + file);
+            }
+            return new BatchJournal(file, channel, lock, header.files);
+        }
+
+        public void discard() {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // Offered again next time
+            }
+        }
+    }
+}
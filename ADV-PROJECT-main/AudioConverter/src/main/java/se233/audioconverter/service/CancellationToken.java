@@ -0,0 +1,53 @@
+package se233.audioconverter.service;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cooperative cancellation for one conversion job. Cancelling kills every ffmpeg
+ * process the job currently runs (including parallel segments) and makes any
+ * process it would start next fail immediately.
+ */
+public class CancellationToken {
+    private final Set<ProcessWatchdog.Watch> running = ConcurrentHashMap.newKeySet();
+    private final Set<CancellationToken> children = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+
+    public void cancel() {
+        cancelled = true;
+        for (ProcessWatchdog.Watch watch : running) {
+            watch.kill(ProcessWatchdog.Reason.CANCELLED);
+        }
+        for (CancellationToken child : children) {
+            child.cancel();
+        }
+    }
+
+    /**
+     * A token that is cancelled along with this one but can also be cancelled on its
+     * own, e.g. to stop sibling segments after one of them fails.
+     */
+    CancellationToken child() {
+        CancellationToken child = new CancellationToken();
+        children.add(child);
+        if (cancelled) {
+            child.cancel();
+        }
+        return child;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void attach(ProcessWatchdog.Watch watch) {
+        running.add(watch);
+        if (cancelled) {
+            watch.kill(ProcessWatchdog.Reason.CANCELLED);
+        }
+    }
+
+    void detach(ProcessWatchdog.Watch watch) {
+        running.remove(watch);
+    }
+}
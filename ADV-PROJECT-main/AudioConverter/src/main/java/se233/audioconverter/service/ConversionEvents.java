@@ -0,0 +1,125 @@
+package se233.audioconverter.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.ConversionSettings;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * JDK Flight Recorder events for the phases of a conversion, so a slow batch can be
+ * opened in JDK Mission Control and read file by file. Every event is disabled by
+ * default and costs nothing until a recording turns it on; audioconverter.jfc next
+ * to the pom enables them all:
+ * -XX:StartFlightRecording:settings=default,settings=audioconverter.jfc,filename=batch.jfr
+ *
+ * Usage: create the event, begin() it, do the work, then commitFor(...). File name,
+ * format and settings digest are only filled in when the event is actually kept.
+ */
+public final class ConversionEvents {
+    private ConversionEvents() {
+    }
+
+    @Category("Audio Converter")
+    @Enabled(false)
+    @StackTrace(false)
+    public abstract static class PhaseEvent extends Event {
+        @Label("File")
+        String fileName;
+
+        @Label("Format")
+        String format;
+
+        @Label("Settings Digest")
+        String settingsDigest;
+
+        @Label("Input Size")
+        @DataAmount
+        long inputBytes;
+
+        /**
+         * Ends the event and commits it with the given file and targets, if the
+         * running recordings want it.
+         */
+        public void commitFor(AudioFile audioFile, List<ConversionSettings> targets) {
+            end();
+            if (shouldCommit()) {
+                fileName = audioFile.getName();
+                inputBytes = audioFile.getFileSize();
+                if (targets != null && !targets.isEmpty()) {
+                    format = targets.stream()
+                            .map(target -> target.getOutputFormat().getExtension())
+                            .collect(Collectors.joining(","));
+                    settingsDigest = targets.stream()
+                            .map(ConversionSettings::digest)
+                            .collect(Collectors.joining(","));
+                }
+                commit();
+            }
+        }
+
+        void commitFor(String path, long size) {
+            end();
+            if (shouldCommit()) {
+                fileName = path;
+                inputBytes = size;
+                commit();
+            }
+        }
+    }
+
+    @Name("se233.audioconverter.QueueWait")
+    @Label("Conversion Queue Wait")
+    @Description("Time a job sat in the conversion pool's queue before a worker took it")
+    public static final class QueueWait extends PhaseEvent {
+        @Label("Queue Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        public long queueWait;
+    }
+
+    @Name("se233.audioconverter.Probe")
+    @Label("Input Probe")
+    @Description("Duration lookup for an input: probe cache, header parse or ffprobe")
+    public static final class Probe extends PhaseEvent {
+    }
+
+    @Name("se233.audioconverter.ProcessStart")
+    @Label("FFmpeg Process Start")
+    @Description("Spawning an ffmpeg process")
+    public static final class ProcessStart extends PhaseEvent {
+    }
+
+    @Name("se233.audioconverter.Encode")
+    @Label("FFmpeg Encode")
+    @Description("An ffmpeg process running, from spawn to exit")
+    public static final class Encode extends PhaseEvent {
+        @Label("Exit Code")
+        public int exitCode;
+    }
+
+    @Name("se233.audioconverter.Finalize")
+    @Label("Output Finalize")
+    @Description("Moving finished outputs into place and recording them in the manifest")
+    public static final class Finalize extends PhaseEvent {
+        @Label("Output Size")
+        @DataAmount
+        public long outputBytes;
+    }
+
+    @Name("se233.audioconverter.UiUpdate")
+    @Label("UI Update")
+    @Description("Progress or status callback run on the worker thread")
+    public static final class UiUpdate extends PhaseEvent {
+        @Label("Update")
+        public String update;
+    }
+}
@@ -0,0 +1,232 @@
+package se233.audioconverter.service;
+
+import se233.audioconverter.exception.AudioConversionException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide conversion counters and timing histograms, registered with the platform
+ * MBean server on first use so jconsole (or any JMX scraper) can watch a running batch
+ * in the GUI as well as in headless runs. Everything is adders and lock-free
+ * histograms; recording never blocks a worker.
+ *
+ * Phases: probe (duration lookup), spawn (starting ffmpeg), encode (ffmpeg running),
+ * finalize (moving outputs into place and recording them), queue wait (time work
+ * sat in the conversion pool's queue) and job (one file end to end).
+ */
+public class ConversionMetrics implements ConversionMetricsMXBean {
+    public static final String OBJECT_NAME = "se233.audioconverter:type=ConversionMetrics";
+
+    private static volatile ConversionMetrics instance;
+
+    private final LongAdder jobsStarted = new LongAdder();
+    private final LongAdder jobsCompleted = new LongAdder();
+    private final LongAdder jobsSkipped = new LongAdder();
+    private final AtomicInteger activeJobs = new AtomicInteger();
+    private final Map<AudioConversionException.ErrorType, LongAdder> failures =
+            new EnumMap<>(AudioConversionException.ErrorType.class);
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final DoubleAdder audioSeconds = new DoubleAdder();
+    private final DoubleAdder completedJobSeconds = new DoubleAdder();
+
+    private final LatencyHistogram probe = new LatencyHistogram();
+    private final LatencyHistogram spawn = new LatencyHistogram();
+    private final LatencyHistogram encode = new LatencyHistogram();
+    private final LatencyHistogram finalize = new LatencyHistogram();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram job = new LatencyHistogram();
+
+    private ConversionMetrics() {
+        for (AudioConversionException.ErrorType type : AudioConversionException.ErrorType.values()) {
+            failures.put(type, new LongAdder());
+        }
+    }
+
+    public static ConversionMetrics getInstance() {
+        if (instance == null) {
+            synchronized (ConversionMetrics.class) {
+                if (instance == null) {
+                    instance = new ConversionMetrics();
+                    instance.register();
+                }
+            }
+        }
+        return instance;
+    }
+
+    private void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException | SecurityException e) {
+            // Metrics are still gathered, just not published
+        }
+    }
+
+    // Recording
+
+    void recordProbe(long nanos) {
+        probe.recordNanos(nanos);
+    }
+
+    void recordSpawn(long nanos) {
+        spawn.recordNanos(nanos);
+    }
+
+    void recordEncode(long nanos) {
+        encode.recordNanos(nanos);
+    }
+
+    void recordFinalize(long nanos, long outputBytes) {
+        finalize.recordNanos(nanos);
+        bytesOut.add(outputBytes);
+    }
+
+    void recordQueueWait(long nanos) {
+        queueWait.recordNanos(nanos);
+    }
+
+    public void jobStarted() {
+        jobsStarted.increment();
+        activeJobs.incrementAndGet();
+    }
+
+    /**
+     * Ends a job started with jobStarted(). Pass the error it failed with, or null.
+     */
+    public void jobFinished(long nanos, long inputBytes, double audioSeconds, boolean skipped,
+                            AudioConversionException error) {
+        activeJobs.decrementAndGet();
+        job.recordNanos(nanos);
+        if (error != null) {
+            failures.get(error.getErrorType()).increment();
+        } else if (skipped) {
+            jobsSkipped.increment();
+        } else {
+            jobsCompleted.increment();
+            bytesIn.add(inputBytes);
+            this.audioSeconds.add(audioSeconds);
+            completedJobSeconds.add(nanos / 1_000_000_000.0);
+        }
+    }
+
+    // MXBean
+
+    @Override
+    public long getJobsStarted() {
+        return jobsStarted.sum();
+    }
+
+    @Override
+    public long getJobsCompleted() {
+        return jobsCompleted.sum();
+    }
+
+    @Override
+    public long getJobsSkipped() {
+        return jobsSkipped.sum();
+    }
+
+    @Override
+    public long getJobsFailed() {
+        long total = 0;
+        for (LongAdder count : failures.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public int getActiveJobs() {
+        return activeJobs.get();
+    }
+
+    @Override
+    public Map<String, Long> getFailuresByType() {
+        Map<String, Long> byType = new LinkedHashMap<>();
+        failures.forEach((type, count) -> byType.put(type.name(), count.sum()));
+        return byType;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public double getAudioSecondsProcessed() {
+        return audioSeconds.sum();
+    }
+
+    @Override
+    public double getRealtimeFactor() {
+        double seconds = completedJobSeconds.sum();
+        return seconds > 0 ? audioSeconds.sum() / seconds : 0;
+    }
+
+    @Override
+    public TimingSnapshot getProbeTime() {
+        return probe.snapshot();
+    }
+
+    @Override
+    public TimingSnapshot getSpawnTime() {
+        return spawn.snapshot();
+    }
+
+    @Override
+    public TimingSnapshot getEncodeTime() {
+        return encode.snapshot();
+    }
+
+    @Override
+    public TimingSnapshot getFinalizeTime() {
+        return finalize.snapshot();
+    }
+
+    @Override
+    public TimingSnapshot getQueueWaitTime() {
+        return queueWait.snapshot();
+    }
+
+    @Override
+    public TimingSnapshot getJobTime() {
+        return job.snapshot();
+    }
+
+    @Override
+    public void reset() {
+        jobsStarted.reset();
+        jobsCompleted.reset();
+        jobsSkipped.reset();
+        failures.values().forEach(LongAdder::reset);
+        bytesIn.reset();
+        bytesOut.reset();
+        audioSeconds.reset();
+        completedJobSeconds.reset();
+        probe.reset();
+        spawn.reset();
+        encode.reset();
+        finalize.reset();
+        queueWait.reset();
+        job.reset();
+    }
+}
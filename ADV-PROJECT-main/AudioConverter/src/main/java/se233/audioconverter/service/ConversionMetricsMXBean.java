@@ -0,0 +1,49 @@
+package se233.audioconverter.service;
+
+import java.util.Map;
+
+/**
+ * Conversion statistics published over JMX as se233.audioconverter:type=ConversionMetrics.
+ * Counts and timings accumulate from process start (or the last reset).
+ */
+public interface ConversionMetricsMXBean {
+    long getJobsStarted();
+
+    long getJobsCompleted();
+
+    long getJobsSkipped();
+
+    long getJobsFailed();
+
+    int getActiveJobs();
+
+    /**
+     * Failed or stopped jobs per AudioConversionException.ErrorType name.
+     */
+    Map<String, Long> getFailuresByType();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    double getAudioSecondsProcessed();
+
+    /**
+     * Audio seconds of completed jobs per second those jobs took (per job, not per batch).
+     */
+    double getRealtimeFactor();
+
+    TimingSnapshot getProbeTime();
+
+    TimingSnapshot getSpawnTime();
+
+    TimingSnapshot getEncodeTime();
+
+    TimingSnapshot getFinalizeTime();
+
+    TimingSnapshot getQueueWaitTime();
+
+    TimingSnapshot getJobTime();
+
+    void reset();
+}
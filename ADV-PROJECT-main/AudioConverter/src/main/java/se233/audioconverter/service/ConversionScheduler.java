@@ -0,0 +1,245 @@
+package se233.audioconverter.service;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Worker pool for conversion jobs whose size follows the machine instead of a fixed 4.
+ * It starts at one ffmpeg process per core and hill-climbs every few seconds: while
+ * jobs are queued it keeps stepping in the direction that raised throughput (audio
+ * seconds encoded per wall second), reverses when throughput drops, and backs off
+ * whenever the system load average says the CPUs are oversubscribed.
+ */
+public class ConversionScheduler extends ThreadPoolExecutor {
+    private static final long ADJUST_INTERVAL_MS = 5000;
+    private static final double TOLERANCE = 0.05;
+    private static final double OVERLOAD_FACTOR = 1.25;
+
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final int cores;
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private final DoubleAdder processedSeconds = new DoubleAdder();
+    private final ScheduledExecutorService controller;
+    private static final ThreadLocal<Long> queueWait = new ThreadLocal<>();
+    private static final ThreadLocal<ConversionScheduler> running = new ThreadLocal<>();
+
+    private final ConversionMetrics metrics = ConversionMetrics.getInstance();
+
+    private double lastProcessed;
+    private long lastSampleNanos = System.nanoTime();
+    private double lastRate;
+    private int direction = 1;
+
+    public ConversionScheduler() {
+        this(Runtime.getRuntime().availableProcessors(),
+                1,
+                Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * A scheduler pinned to exactly the given number of concurrent jobs.
+     */
+    public static ConversionScheduler fixed(int concurrency) {
+        return new ConversionScheduler(concurrency, concurrency, concurrency);
+    }
+
+    public ConversionScheduler(int initialConcurrency, int minConcurrency, int maxConcurrency) {
+        super(initialConcurrency, initialConcurrency, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), namedThreads("conversion-worker"));
+        this.minConcurrency = Math.max(1, minConcurrency);
+        this.maxConcurrency = Math.max(this.minConcurrency, maxConcurrency);
+        this.cores = Runtime.getRuntime().availableProcessors();
+
+        if (this.minConcurrency < this.maxConcurrency) {
+            controller = Executors.newSingleThreadScheduledExecutor(namedThreads("conversion-scheduler"));
+            controller.scheduleWithFixedDelay(this::adjust,
+                    ADJUST_INTERVAL_MS, ADJUST_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        } else {
+            controller = null;
+        }
+    }
+
+    /**
+     * Jobs report the audio seconds they have encoded; this is the throughput signal.
+     */
+    public void recordProcessed(double audioSeconds) {
+        if (audioSeconds > 0) {
+            processedSeconds.add(audioSeconds);
+        }
+    }
+
+    public int getConcurrency() {
+        return getCorePoolSize();
+    }
+
+    /**
+     * Audio seconds encoded per wall-clock second over the last adjustment interval.
+     */
+    public double getLastThroughput() {
+        return lastRate;
+    }
+
+    private void adjust() {
+        long now = System.nanoTime();
+        double processed = processedSeconds.sum();
+        double elapsed = (now - lastSampleNanos) / 1_000_000_000.0;
+        double rate = elapsed > 0 ? (processed - lastProcessed) / elapsed : 0;
+        lastProcessed = processed;
+        lastSampleNanos = now;
+
+        double load = os.getSystemLoadAverage(); // -1 where unsupported
+        int current = getConcurrency();
+
+        if (load > cores * OVERLOAD_FACTOR && current > minConcurrency) {
+            direction = -1;
+            resize(current - 1);
+        } else if (getQueue().isEmpty() || rate <= 0) {
+            // Not enough work (or no progress yet) to tell whether more workers would help
+            lastRate = rate;
+            return;
+        } else if (lastRate > 0 && rate < lastRate * (1 - TOLERANCE)) {
+            direction = -direction;
+            resize(current + direction);
+        } else if (lastRate <= 0 || rate > lastRate * (1 + TOLERANCE)) {
+            resize(current + direction);
+        }
+        lastRate = rate;
+    }
+
+    private synchronized void resize(int target) {
+        int size = Math.max(minConcurrency, Math.min(maxConcurrency, target));
+        if (size > getMaximumPoolSize()) {
+            setMaximumPoolSize(size);
+            setCorePoolSize(size);
+        } else {
+            setCorePoolSize(size);
+            setMaximumPoolSize(size);
+        }
+    }
+
+    /**
+     * Marks conversion jobs, the only tasks whose time in the queue is recorded.
+     * Probes and duplicate hashing share the pool but would skew the figures.
+     */
+    public interface ConversionJob {
+    }
+
+    /**
+     * Marks a runnable as a conversion job, for submit().
+     */
+    public static Runnable conversionJob(Runnable job) {
+        return new MarkedRunnable(job);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return callable instanceof ConversionJob ? new QueuedTask<>(callable) : super.newTaskFor(callable);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return runnable instanceof ConversionJob
+                ? new QueuedTask<>(Executors.callable(runnable, value))
+                : super.newTaskFor(runnable, value);
+    }
+
+    /**
+     * Nanoseconds the conversion job running on the calling thread waited in the queue,
+     * or 0 if the thread is not running one.
+     */
+    public static long currentQueueWaitNanos() {
+        Long waited = queueWait.get();
+        return waited != null ? waited : 0;
+    }
+
+    /**
+     * The scheduler running the conversion job on the calling thread, or null if the
+     * thread is not running one. Work a job fans out goes here, so it counts against
+     * the same limit as the job itself.
+     */
+    static ConversionScheduler current() {
+        return running.get();
+    }
+
+    @Override
+    public void shutdown() {
+        if (controller != null) {
+            controller.shutdownNow();
+        }
+        super.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        if (controller != null) {
+            controller.shutdownNow();
+        }
+        return super.shutdownNow();
+    }
+
+    /**
+     * A conversion job's future, recording how long it sat in the queue before a
+     * worker took it. It is what submit() returns and what shutdownNow() hands back.
+     */
+    private final class QueuedTask<T> extends FutureTask<T> {
+        private final long queued = System.nanoTime();
+
+        QueuedTask(Callable<T> callable) {
+            super(callable);
+        }
+
+        @Override
+        public void run() {
+            if (isDone()) {
+                // Cancelled while queued - it never ran, so it did not wait for a worker
+                super.run();
+                return;
+            }
+            long waited = System.nanoTime() - queued;
+            metrics.recordQueueWait(waited);
+            queueWait.set(waited);
+            running.set(ConversionScheduler.this);
+            try {
+                super.run();
+            } finally {
+                queueWait.remove();
+                running.remove();
+            }
+        }
+    }
+
+    private static final class MarkedRunnable implements Runnable, ConversionJob {
+        private final Runnable job;
+
+        MarkedRunnable(Runnable job) {
+            this.job = job;
+        }
+
+        @Override
+        public void run() {
+            job.run();
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,120 @@
+package se233.audioconverter.service;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Finds inputs with byte-identical content so each is encoded only once per batch.
+ * Candidates are narrowed in rounds that get more expensive: equal size (free),
+ * then the sampled hash of the first and last 64 KB, and only files that still
+ * collide are hashed in full, streaming and in parallel on the given executor.
+ * Files that cannot be read are treated as unique.
+ */
+public final class DuplicateFinder {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private DuplicateFinder() {
+    }
+
+    /**
+     * Groups of items whose files have identical content, each in the order the items
+     * were given. Items without a duplicate are not returned.
+     */
+    public static <T> List<List<T>> findDuplicates(List<T> items, Function<T, Path> pathOf,
+                                                   ExecutorService executor)
+            throws InterruptedException {
+        Map<Long, List<T>> bySize = new LinkedHashMap<>();
+        for (T item : items) {
+            try {
+                long size = Files.size(pathOf.apply(item));
+                if (size > 0) {
+                    bySize.computeIfAbsent(size, s -> new ArrayList<>()).add(item);
+                }
+            } catch (IOException e) {
+                // Unreadable - converted on its own and fails there with a proper error
+            }
+        }
+
+        List<List<T>> sampled = regroup(bySize.values(), item -> {
+            Path path = pathOf.apply(item);
+            return OutputManifest.fastHash(path, Files.size(path));
+        }, executor);
+        return regroup(sampled, item -> fullHash(pathOf.apply(item)), executor);
+    }
+
+    /**
+     * Splits every candidate group by the given key, computed in parallel, and keeps
+     * the resulting groups that still have more than one member.
+     */
+    private static <T> List<List<T>> regroup(Collection<List<T>> groups, HashFunction<T> key,
+                                             ExecutorService executor)
+            throws InterruptedException {
+        List<T> candidates = new ArrayList<>();
+        for (List<T> group : groups) {
+            if (group.size() > 1) {
+                candidates.addAll(group);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return List.of();
+        }
+
+        List<Callable<String>> hashes = new ArrayList<>();
+        for (T item : candidates) {
+            hashes.add(() -> key.hash(item));
+        }
+        List<Future<String>> results = executor.invokeAll(hashes);
+
+        // Both hashes cover the size, so groups of different sizes never merge
+        Map<String, List<T>> byKey = new LinkedHashMap<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            try {
+                byKey.computeIfAbsent(results.get(i).get(), k -> new ArrayList<>()).add(candidates.get(i));
+            } catch (ExecutionException e) {
+                // Could not be read - leave it out
+            }
+        }
+
+        List<List<T>> duplicates = new ArrayList<>();
+        for (List<T> group : byKey.values()) {
+            if (group.size() > 1) {
+                duplicates.add(group);
+            }
+        }
+        return duplicates;
+    }
+
+    static String fullHash(Path file) throws IOException {
+        Hasher hasher = Hashing.murmur3_128().newHasher().putLong(Files.size(file));
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                hasher.putBytes(buffer.flip());
+                buffer.clear();
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    @FunctionalInterface
+    private interface HashFunction<T> {
+        String hash(T item) throws IOException;
+    }
+}
@@ -0,0 +1,94 @@
+package se233.audioconverter.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Forwards ffmpeg diagnostic lines to SLF4J from a single background thread, so
+ * conversion workers never block on the logging backend or on each other.
+ * When the queue is full, lines are dropped and counted instead of stalling the
+ * encode. The level comes from the audioconverter.ffmpeg.log property
+ * (off, error, warn, info, debug, trace; default warn).
+ */
+class FFmpegLog {
+    static final String LEVEL_PROPERTY = "audioconverter.ffmpeg.log";
+    private static final int QUEUE_CAPACITY = 4096;
+
+    private static volatile FFmpegLog instance;
+
+    private final Logger logger = LoggerFactory.getLogger("ffmpeg");
+    private final Level level;
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+
+    private FFmpegLog() {
+        this.level = parseLevel(System.getProperty(LEVEL_PROPERTY, "warn"));
+        if (isEnabled()) {
+            Thread writer = new Thread(this::drain, "ffmpeg-log");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    static FFmpegLog getInstance() {
+        if (instance == null) {
+            synchronized (FFmpegLog.class) {
+                if (instance == null) {
+                    instance = new FFmpegLog();
+                }
+            }
+        }
+        return instance;
+    }
+
+    boolean isEnabled() {
+        return level != null && logger.isEnabledForLevel(level);
+    }
+
+    /**
+     * Queues one line; the text is only decoded when the level is enabled.
+     */
+    void line(String fileName, byte[] buffer, int offset, int length) {
+        if (!isEnabled()) {
+            return;
+        }
+        String message = "[" + fileName + "] " + new String(buffer, offset, length, StandardCharsets.UTF_8);
+        if (!queue.offer(message)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                String message = queue.take();
+                long lost = dropped.getAndSet(0);
+                if (lost > 0) {
+                    logger.warn("{} ffmpeg output lines dropped (log queue full)", lost);
+                }
+                logger.atLevel(level).log(message);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Level parseLevel(String name) {
+        String normalized = name.trim().toUpperCase(Locale.ROOT);
+        if (normalized.equals("OFF")) {
+            return null;
+        }
+        try {
+            return Level.valueOf(normalized);
+        } catch (IllegalArgumentException e) {
+            return Level.WARN;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package se233.audioconverter.service;
+
+import net.bramp.ffmpeg.progress.Progress;
+import net.bramp.ffmpeg.progress.ProgressListener;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental parser for the key=value blocks ffmpeg writes with "-progress pipe:1".
+ * Bytes are scanned in place and numbers decoded without creating Strings, so a long
+ * encode produces no garbage per progress line. A single Progress instance is reused
+ * for every event - listeners must copy any field they want to keep.
+ */
+public class FFmpegProgressParser {
+    private static final int MAX_LINE = 1024;
+
+    private static final byte[] KEY_TOTAL_SIZE = ascii("total_size");
+    private static final byte[] KEY_OUT_TIME_US = ascii("out_time_us");
+    private static final byte[] KEY_OUT_TIME_MS = ascii("out_time_ms"); // ffmpeg reports microseconds here too
+    private static final byte[] KEY_BITRATE = ascii("bitrate");
+    private static final byte[] KEY_SPEED = ascii("speed");
+    private static final byte[] KEY_FRAME = ascii("frame");
+    private static final byte[] KEY_DUP_FRAMES = ascii("dup_frames");
+    private static final byte[] KEY_DROP_FRAMES = ascii("drop_frames");
+    private static final byte[] KEY_PROGRESS = ascii("progress");
+    private static final byte[] KEY_OUT_TIME = ascii("out_time");
+    private static final byte[] KEY_FPS = ascii("fps");
+    private static final byte[] KEY_STREAM_PREFIX = ascii("stream_");
+    private static final byte[] VALUE_END = ascii("end");
+
+    private static final long NOT_A_NUMBER = Long.MIN_VALUE;
+
+    private final ProgressListener listener;
+    private final LineSink diagnostics;
+    private final Progress progress = new Progress();
+    private final byte[] line = new byte[MAX_LINE];
+    private int lineLength;
+    private boolean lineOverflow;
+
+    /**
+     * Receives lines that are not progress keys. The bytes are only valid during the
+     * call; a sink that keeps them must copy.
+     */
+    @FunctionalInterface
+    public interface LineSink {
+        void line(byte[] buffer, int offset, int length);
+    }
+
+    public FFmpegProgressParser(ProgressListener listener, LineSink diagnostics) {
+        this.listener = listener;
+        this.diagnostics = diagnostics;
+        this.progress.status = Progress.Status.CONTINUE;
+    }
+
+    public void feed(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            byte b = buffer[i];
+            if (b == '\n' || b == '\r') {
+                endLine();
+            } else if (lineLength < MAX_LINE) {
+                line[lineLength++] = b;
+            } else {
+                lineOverflow = true;
+            }
+        }
+    }
+
+    /**
+     * Flushes a trailing line that was not terminated by a newline.
+     */
+    public void finish() {
+        endLine();
+    }
+
+    public Progress getProgress() {
+        return progress;
+    }
+
+    private void endLine() {
+        if (lineLength == 0) {
+            lineOverflow = false;
+            return;
+        }
+        if (lineOverflow || !parseProgressLine()) {
+            if (diagnostics != null) {
+                diagnostics.line(line, 0, lineLength);
+            }
+        }
+        lineLength = 0;
+        lineOverflow = false;
+    }
+
+    private boolean parseProgressLine() {
+        int eq = indexOf('=');
+        if (eq <= 0) {
+            return false;
+        }
+        int valueStart = skipSpaces(eq + 1);
+
+        if (keyEquals(KEY_OUT_TIME_US, eq) || keyEquals(KEY_OUT_TIME_MS, eq)) {
+            long us = parseLong(valueStart, lineLength);
+            if (us != NOT_A_NUMBER) {
+                progress.out_time_ns = us * 1000L;
+            }
+        } else if (keyEquals(KEY_TOTAL_SIZE, eq)) {
+            long size = parseLong(valueStart, lineLength);
+            if (size != NOT_A_NUMBER) {
+                progress.total_size = size;
+            }
+        } else if (keyEquals(KEY_BITRATE, eq)) {
+            // "128.0kbits/s" -> bits per second
+            double kbits = parseDecimal(valueStart);
+            if (!Double.isNaN(kbits)) {
+                progress.bitrate = (long) (kbits * 1000);
+            }
+        } else if (keyEquals(KEY_SPEED, eq)) {
+            // "12.3x"
+            double speed = parseDecimal(valueStart);
+            if (!Double.isNaN(speed)) {
+                progress.speed = (float) speed;
+            }
+        } else if (keyEquals(KEY_FRAME, eq)) {
+            long frame = parseLong(valueStart, lineLength);
+            if (frame != NOT_A_NUMBER) {
+                progress.frame = frame;
+            }
+        } else if (keyEquals(KEY_DUP_FRAMES, eq)) {
+            long dup = parseLong(valueStart, lineLength);
+            if (dup != NOT_A_NUMBER) {
+                progress.dup_frames = dup;
+            }
+        } else if (keyEquals(KEY_DROP_FRAMES, eq)) {
+            long drop = parseLong(valueStart, lineLength);
+            if (drop != NOT_A_NUMBER) {
+                progress.drop_frames = drop;
+            }
+        } else if (keyEquals(KEY_PROGRESS, eq)) {
+            // "progress=" terminates a block
+            progress.status = valueEquals(VALUE_END, valueStart)
+                    ? Progress.Status.END
+                    : Progress.Status.CONTINUE;
+            if (listener != null) {
+                listener.progress(progress);
+            }
+        } else if (!keyEquals(KEY_OUT_TIME, eq) && !keyEquals(KEY_FPS, eq)
+                && !keyStartsWith(KEY_STREAM_PREFIX, eq)) {
+            return false;
+        }
+        return true;
+    }
+
+    private int indexOf(char c) {
+        for (int i = 0; i < lineLength; i++) {
+            if (line[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int skipSpaces(int from) {
+        while (from < lineLength && line[from] == ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private boolean keyEquals(byte[] key, int keyLength) {
+        if (key.length != keyLength) {
+            return false;
+        }
+        for (int i = 0; i < keyLength; i++) {
+            if (line[i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean keyStartsWith(byte[] prefix, int keyLength) {
+        if (prefix.length > keyLength) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean valueEquals(byte[] value, int from) {
+        if (lineLength - from != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (line[from + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long parseLong(int from, int to) {
+        if (from >= to) {
+            return NOT_A_NUMBER;
+        }
+        boolean negative = line[from] == '-';
+        int i = negative ? from + 1 : from;
+        if (i >= to) {
+            return NOT_A_NUMBER;
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return NOT_A_NUMBER; // e.g. "N/A"
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private double parseDecimal(int from) {
+        long whole = 0;
+        long fraction = 0;
+        long scale = 1;
+        boolean seenDigit = false;
+        boolean inFraction = false;
+        for (int i = from; i < lineLength; i++) {
+            byte b = line[i];
+            if (b >= '0' && b <= '9') {
+                seenDigit = true;
+                if (inFraction) {
+                    if (scale < 1_000_000_000L) {
+                        fraction = fraction * 10 + (b - '0');
+                        scale *= 10;
+                    }
+                } else {
+                    whole = whole * 10 + (b - '0');
+                }
+            } else if (b == '.' && !inFraction) {
+                inFraction = true;
+            } else {
+                break;
+            }
+        }
+        return seenDigit ? whole + (double) fraction / scale : Double.NaN;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -2,129 +2,139 @@ package se233.audioconverter.service;
 
 import se233.audioconverter.exception.AudioConversionException;
 import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.AudioMetadata;
+import se233.audioconverter.model.CollisionPolicy;
+import se233.audioconverter.model.ConversionOutput;
 import se233.audioconverter.model.ConversionSettings;
-import net.bramp.ffmpeg.FFmpeg;
-import net.bramp.ffmpeg.FFmpegExecutor;
 import net.bramp.ffmpeg.FFprobe;
-import net.bramp.ffmpeg.builder.FFmpegBuilder;
 import net.bramp.ffmpeg.probe.FFmpegProbeResult;
 import net.bramp.ffmpeg.probe.FFmpegFormat;
 import net.bramp.ffmpeg.probe.FFmpegStream;
 import net.bramp.ffmpeg.progress.ProgressListener;
-import net.bramp.ffmpeg.progress.Progress;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 public class FFmpegService {
     private static final List<String> SUPPORTED_FORMATS = Arrays.asList("mp3", "wav", "m4a", "flac");
-
-    private FFmpeg ffmpeg;
-    private FFprobe ffprobe;
-    private FFmpegExecutor executor;
+    private static final int PROGRESS_BUFFER_SIZE = 8192;
+    // How long a destroyed ffmpeg gets to exit before an error is passed on
+    private static final long PROCESS_EXIT_WAIT_SECONDS = 5;
+    static final String JOB_TIMEOUT_PROPERTY = "audioconverter.job.timeout";
+    static final String STALL_TIMEOUT_PROPERTY = "audioconverter.stall.timeout";
+    private static final String PARTIAL_MARKER = ".partial";
+
+    // Compiled output options per settings digest; the same settings always give the
+    // same arguments, so each combination is built once per process
+    private static final Map<String, List<String>> outputOptionsCache = new ConcurrentHashMap<>();
+
+    private final FFmpegToolchain toolchain;
+    private final FFprobe ffprobe;
+    private final ProbeCache probeCache;
+    private final SegmentedEncoder segmentedEncoder;
+    private final ProcessWatchdog watchdog;
+    private final FFmpegLog ffmpegLog;
+    private final ConversionMetrics metrics;
+    private final List<String> globalOptions;
+
+    // Per ffmpeg process, in seconds; 0 disables the check
+    private volatile long jobTimeoutSeconds;
+    private volatile long stallTimeoutSeconds;
+    private volatile boolean skipUpToDate = true;
+    private volatile CollisionPolicy collisionPolicy = CollisionPolicy.SUFFIX;
+
+    // Output path -> input converting to it right now. Each name is claimed atomically
+    // on its own, so concurrent jobs never share an output; once the job is over the
+    // directory's manifest is what records the owner.
+    private final Map<String, String> outputClaims = new ConcurrentHashMap<>();
 
     public FFmpegService() throws IOException {
-        String ffmpegPath = getFfmpegPath();
-        String ffprobePath = getFfprobePath();
-
-        this.ffmpeg = new FFmpeg(ffmpegPath);
-        this.ffprobe = new FFprobe(ffprobePath);
-        this.executor = new FFmpegExecutor(ffmpeg, ffprobe);
+        this.toolchain = FFmpegToolchain.getInstance();
+        this.ffprobe = new FFprobe(toolchain.getFfprobePath());
+        this.probeCache = ProbeCache.getInstance();
+        this.segmentedEncoder = new SegmentedEncoder(this, toolchain.getFfmpegPath());
+        this.watchdog = ProcessWatchdog.getInstance();
+        this.ffmpegLog = FFmpegLog.getInstance();
+        this.metrics = ConversionMetrics.getInstance();
+        this.globalOptions = List.of(
+                toolchain.getFfmpegPath(),
+                "-y", // Overwrite output files
+                "-v", "error",
+                // Stream machine-readable progress on stdout instead of the stats line
+                "-nostats", "-progress", "pipe:1");
+        this.jobTimeoutSeconds = Long.getLong(JOB_TIMEOUT_PROPERTY, 0);
+        this.stallTimeoutSeconds = Long.getLong(STALL_TIMEOUT_PROPERTY, 120);
     }
 
-    private String getFfmpegPath() {
-        String os = System.getProperty("os.name").toLowerCase();
-
-        String pathEnv = System.getenv("PATH");
-        if (pathEnv != null) {
-            String[] paths = pathEnv.split(File.pathSeparator);
-            String ffmpegName = os.contains("win") ? "ffmpeg.exe" : "ffmpeg";
+    public FFmpegToolchain getToolchain() {
+        return toolchain;
+    }
 
-            for (String path : paths) {
-                File ffmpegFile = new File(path, ffmpegName);
-                if (ffmpegFile.exists() && ffmpegFile.canExecute()) {
-                    return ffmpegFile.getAbsolutePath();
-                }
-            }
-        }
+    /**
+     * Wall-clock limit for one ffmpeg run. 0 means no limit.
+     */
+    public void setJobTimeoutSeconds(long seconds) {
+        this.jobTimeoutSeconds = Math.max(seconds, 0);
+    }
 
-        if (os.contains("mac") || os.contains("nix") || os.contains("nux")) {
-            String[] commonPaths = {
-                    "/usr/local/bin/ffmpeg",
-                    "/usr/bin/ffmpeg",
-                    "/opt/homebrew/bin/ffmpeg"
-            };
-            for (String path : commonPaths) {
-                File ffmpegFile = new File(path);
-                if (ffmpegFile.exists() && ffmpegFile.canExecute()) {
-                    return path;
-                }
-            }
-        } else if (os.contains("win")) {
-            String[] commonPaths = {
-                    "C:\\ffmpeg\\bin\\ffmpeg.exe",
-                    "C:\\Program Files\\ffmpeg\\bin\\ffmpeg.exe"
-            };
-            for (String path : commonPaths) {
-                File ffmpegFile = new File(path);
-                if (ffmpegFile.exists()) {
-                    return path;
-                }
-            }
-        }
+    public long getJobTimeoutSeconds() {
+        return jobTimeoutSeconds;
+    }
 
-        return os.contains("win") ? "ffmpeg.exe" : "ffmpeg";
+    /**
+     * How long ffmpeg may go without advancing its output time before it is
+     * treated as hung and killed. 0 disables the check.
+     */
+    public void setStallTimeoutSeconds(long seconds) {
+        this.stallTimeoutSeconds = Math.max(seconds, 0);
     }
 
-    private String getFfprobePath() {
-        String os = System.getProperty("os.name").toLowerCase();
+    public long getStallTimeoutSeconds() {
+        return stallTimeoutSeconds;
+    }
 
-        String pathEnv = System.getenv("PATH");
-        if (pathEnv != null) {
-            String[] paths = pathEnv.split(File.pathSeparator);
-            String ffprobeName = os.contains("win") ? "ffprobe.exe" : "ffprobe";
+    /**
+     * Whether outputs recorded as current in their directory's OutputManifest are
+     * skipped instead of converted again. On by default.
+     */
+    public void setSkipUpToDate(boolean skipUpToDate) {
+        this.skipUpToDate = skipUpToDate;
+    }
 
-            for (String path : paths) {
-                File ffprobeFile = new File(path, ffprobeName);
-                if (ffprobeFile.exists() && ffprobeFile.canExecute()) {
-                    return ffprobeFile.getAbsolutePath();
-                }
-            }
-        }
+    public boolean isSkipUpToDate() {
+        return skipUpToDate;
+    }
 
-        if (os.contains("mac") || os.contains("nix") || os.contains("nux")) {
-            String[] commonPaths = {
-                    "/usr/local/bin/ffprobe",
-                    "/usr/bin/ffprobe",
-                    "/opt/homebrew/bin/ffprobe"
-            };
-            for (String path : commonPaths) {
-                File ffprobeFile = new File(path);
-                if (ffprobeFile.exists() && ffprobeFile.canExecute()) {
-                    return path;
-                }
-            }
-        } else if (os.contains("win")) {
-            String[] commonPaths = {
-                    "C:\\ffmpeg\\bin\\ffprobe.exe",
-                    "C:\\Program Files\\ffmpeg\\bin\\ffprobe.exe"
-            };
-            for (String path : commonPaths) {
-                File ffprobeFile = new File(path);
-                if (ffprobeFile.exists()) {
-                    return path;
-                }
-            }
-        }
+    /**
+     * How an output name already used by another input is resolved. SUFFIX appends
+     * _2, _3, ...; SKIP fails that output with OUTPUT_CONFLICT. MIRROR is applied by
+     * the caller through CollisionPolicy.outputDirectory and falls back to SUFFIX for
+     * inputs that still collide (song.wav and song.flac in one folder).
+     */
+    public void setCollisionPolicy(CollisionPolicy collisionPolicy) {
+        this.collisionPolicy = collisionPolicy;
+    }
 
-        return os.contains("win") ? "ffprobe.exe" : "ffprobe";
+    public CollisionPolicy getCollisionPolicy() {
+        return collisionPolicy;
     }
 
     public boolean isFormatSupported(String format) {
@@ -151,6 +161,17 @@ public class FFmpegService {
         }
     }
 
+    public void validateSettings(ConversionSettings settings) throws AudioConversionException {
+        String codec = settings.getOutputFormat().getCodec();
+        if (!toolchain.hasEncoder(codec)) {
+            throw new AudioConversionException(
+                    settings.getOutputFormat().toString(),
+                    AudioConversionException.ErrorType.INVALID_SETTINGS,
+                    "FFmpeg " + toolchain.getFfmpegVersion() + " has no '" + codec + "' encoder"
+            );
+        }
+    }
+
     public FFmpegProbeResult probeFile(String filePath) throws AudioConversionException {
         try {
             return ffprobe.probe(filePath);
@@ -163,104 +184,565 @@ public class FFmpegService {
         }
     }
 
-    public void convertAudio(AudioFile audioFile, ConversionSettings settings,
-                             String outputPath, ProgressListener listener)
+    public ConversionOutput convertAudio(AudioFile audioFile, ConversionSettings settings,
+                                         String outputPath, ProgressListener listener)
+            throws AudioConversionException {
+        return convertAudio(audioFile, settings, outputPath, listener, new CancellationToken());
+    }
+
+    /**
+     * Converts one input to one target. The returned output is marked skipped when
+     * it was already up to date.
+     */
+    public ConversionOutput convertAudio(AudioFile audioFile, ConversionSettings settings,
+                                         String outputPath, ProgressListener listener,
+                                         CancellationToken token)
             throws AudioConversionException {
 
         validateAudioFile(audioFile);
+        validateSettings(settings);
 
+        String outputFilename = buildOutputFilenames(audioFile, List.of(settings), outputPath).get(0);
+        if (outputFilename == null) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.OUTPUT_CONFLICT,
+                    buildOutputFilename(audioFile, settings, outputPath) + " belongs to another input"
+            );
+        }
+        ConversionOutput output = new ConversionOutput(settings, outputFilename);
         try {
-            String outputFilename = buildOutputFilename(audioFile, settings, outputPath);
+            if (isUpToDate(audioFile, output)) {
+                output.setSkipped(true);
+                return output;
+            }
 
-            // Build FFmpeg command manually using ProcessBuilder for correct argument order
-            List<String> command = new ArrayList<>();
+            // Very long inputs are split into time ranges encoded in parallel
+            AudioMetadata metadata = null;
+            try {
+                metadata = getMetadata(audioFile);
+            } catch (AudioConversionException e) {
+                // No duration - convert in one piece
+            }
+            if (segmentedEncoder.shouldSegment(settings, metadata)) {
+                Path temp = prepareTempFile(audioFile, Paths.get(outputFilename));
+                try {
+                    segmentedEncoder.encode(audioFile, settings, metadata, temp.toString(), listener, token);
+                    finalizeOutputs(audioFile, List.of(output), List.of(temp));
+                } finally {
+                    deleteQuietly(temp);
+                }
+            } else {
+                runFfmpeg(audioFile, List.of(output), listener, token);
+            }
+            return output;
+        } finally {
+            releaseClaims(audioFile, List.of(outputFilename));
+        }
+    }
 
-            // FFmpeg executable path
-            String ffmpegPath = getFfmpegPath();
-            command.add(ffmpegPath);
+    /**
+     * Converts one input to several targets with a single ffmpeg process, so the
+     * source is decoded once. Targets that fail are reported in their
+     * ConversionOutput instead of failing the whole call; targets that are
+     * already up to date are marked skipped and left out of the run.
+     */
+    public List<ConversionOutput> convertAudio(AudioFile audioFile, List<ConversionSettings> targets,
+                                               String outputPath, ProgressListener listener)
+            throws AudioConversionException {
+        return convertAudio(audioFile, targets, outputPath, listener, new CancellationToken());
+    }
 
-            // Global options
-            command.add("-y"); // Overwrite output files
-            command.add("-v");
-            command.add("error");
+    public List<ConversionOutput> convertAudio(AudioFile audioFile, List<ConversionSettings> targets,
+                                               String outputPath, ProgressListener listener,
+                                               CancellationToken token)
+            throws AudioConversionException {
 
-            // Input file
-            command.add("-i");
-            command.add(audioFile.getFilePath());
+        validateAudioFile(audioFile);
 
-            // Output options (AFTER input file)
-            command.add("-c:a");
-            command.add(settings.getOutputFormat().getCodec());
+        List<String> outputFilenames = buildOutputFilenames(audioFile, targets, outputPath);
+        try {
+            return convertClaimed(audioFile, targets, outputFilenames, outputPath, listener, token);
+        } finally {
+            releaseClaims(audioFile, outputFilenames);
+        }
+    }
 
-            command.add("-ac");
-            command.add(String.valueOf(settings.getChannels().getCount()));
+    private List<ConversionOutput> convertClaimed(AudioFile audioFile, List<ConversionSettings> targets,
+                                                  List<String> outputFilenames, String outputPath,
+                                                  ProgressListener listener, CancellationToken token)
+            throws AudioConversionException {
+        List<ConversionOutput> outputs = new ArrayList<>();
+        List<ConversionOutput> runnable = new ArrayList<>();
+        for (int i = 0; i < targets.size(); i++) {
+            ConversionSettings target = targets.get(i);
+            String outputFilename = outputFilenames.get(i);
+            ConversionOutput output = new ConversionOutput(target, outputFilename != null
+                    ? outputFilename : buildOutputFilename(audioFile, target, outputPath));
+            outputs.add(output);
+            try {
+                if (outputFilename == null) {
+                    throw new AudioConversionException(
+                            audioFile.getName(),
+                            AudioConversionException.ErrorType.OUTPUT_CONFLICT,
+                            output.getOutputPath() + " belongs to another input"
+                    );
+                }
+                validateSettings(target);
+                if (isUpToDate(audioFile, output)) {
+                    output.setSkipped(true);
+                } else {
+                    runnable.add(output);
+                }
+            } catch (AudioConversionException e) {
+                output.setError(e);
+            }
+        }
 
-            command.add("-ar");
-            command.add(String.valueOf(settings.getSampleRate().getRate()));
+        if (runnable.isEmpty()) {
+            return outputs;
+        }
 
-            // Bitrate settings - check mode and format
-            if (settings.getOutputFormat().supportsBitrate()) {
-                if (settings.getOutputFormat() == ConversionSettings.OutputFormat.MP3 &&
-                        settings.getBitrateMode() == ConversionSettings.BitrateMode.VARIABLE) {
-                    // MP3 VBR mode - use -q:a (quality) instead of bitrate
-                    command.add("-q:a");
-                    command.add(String.valueOf(settings.getVbrQuality()));
-                } else {
-                    // CBR mode or other formats - use bitrate
-                    int bitrate = settings.getEffectiveBitrate();
-                    command.add("-b:a");
-                    command.add(bitrate + "k");
+        try {
+            runFfmpeg(audioFile, runnable, listener, token);
+        } catch (AudioConversionException e) {
+            if (isAborted(e)) {
+                // Cancelled or killed by the watchdog - retrying would only repeat it
+                throw e;
+            } else if (runnable.size() == 1) {
+                runnable.get(0).setError(e);
+            } else {
+                // ffmpeg aborts every output if one fails - retry them one by one
+                // so a single bad target does not sink the others
+                for (ConversionOutput output : runnable) {
+                    try {
+                        runFfmpeg(audioFile, List.of(output), listener, token);
+                    } catch (AudioConversionException retryError) {
+                        if (isAborted(retryError)) {
+                            throw retryError;
+                        }
+                        output.setError(retryError);
+                    }
                 }
             }
+        }
 
-            // Output file (MUST be last)
-            command.add(outputFilename);
+        return outputs;
+    }
 
-            // Execute command
-            ProcessBuilder processBuilder = new ProcessBuilder(command);
-            processBuilder.redirectErrorStream(true);
+    /**
+     * Gives a duplicate input (identical content, different name) the outputs already
+     * produced for its original: each successful output is hard-linked, or copied
+     * where the file system cannot link, under the duplicate's own output name.
+     * Failed outputs carry over as failed, since encoding the same bytes again would
+     * fail the same way.
+     */
+    public List<ConversionOutput> copyOutputs(AudioFile duplicate, List<ConversionOutput> originals,
+                                              String outputPath) {
+        List<String> outputFilenames = buildOutputFilenames(duplicate,
+                originals.stream().map(ConversionOutput::getSettings).collect(Collectors.toList()),
+                outputPath);
+        try {
+            return copyClaimed(duplicate, originals, outputFilenames, outputPath);
+        } finally {
+            releaseClaims(duplicate, outputFilenames);
+        }
+    }
 
-            Process process = processBuilder.start();
+    private List<ConversionOutput> copyClaimed(AudioFile duplicate, List<ConversionOutput> originals,
+                                               List<String> outputFilenames, String outputPath) {
+        List<ConversionOutput> outputs = new ArrayList<>();
+        for (int i = 0; i < originals.size(); i++) {
+            ConversionOutput original = originals.get(i);
+            String outputFilename = outputFilenames.get(i);
+            if (outputFilename == null) {
+                ConversionOutput output = new ConversionOutput(original.getSettings(),
+                        buildOutputFilename(duplicate, original.getSettings(), outputPath));
+                output.setError(new AudioConversionException(
+                        duplicate.getName(),
+                        AudioConversionException.ErrorType.OUTPUT_CONFLICT,
+                        output.getOutputPath() + " belongs to another input"
+                ));
+                outputs.add(output);
+                continue;
+            }
+            ConversionOutput output = new ConversionOutput(original.getSettings(), outputFilename);
+            outputs.add(output);
+            if (!original.isSuccessful()) {
+                output.setError(new AudioConversionException(
+                        duplicate.getName(),
+                        original.getError().getErrorType(),
+                        "Same content as " + Paths.get(original.getOutputPath()).getFileName()
+                                + ": " + original.getError().getMessage()
+                ));
+                continue;
+            }
 
-            // Read output
-            BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()));
-            String line;
-            StringBuilder output = new StringBuilder();
+            Path source = Paths.get(original.getOutputPath());
+            Path target = Paths.get(outputFilename);
+            if (source.toAbsolutePath().equals(target.toAbsolutePath())) {
+                // Same output name - the original's file is already this duplicate's output
+                output.setSkipped(original.isSkipped());
+                continue;
+            }
+            if (isUpToDate(duplicate, output)) {
+                output.setSkipped(true);
+                continue;
+            }
 
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-                System.out.println(line); // For debugging
+            Path temp = tempFileFor(target);
+            try {
+                Files.createDirectories(target.toAbsolutePath().getParent());
+                try {
+                    Files.createLink(temp, source);
+                } catch (IOException | UnsupportedOperationException e) {
+                    // Other volume, FAT/exFAT, or no permission to link
+                    Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+                }
+                finalizeOutputs(duplicate, List.of(output), List.of(temp));
+            } catch (IOException | AudioConversionException e) {
+                output.setError(e instanceof AudioConversionException
+                        ? (AudioConversionException) e
+                        : new AudioConversionException(
+                                duplicate.getName(),
+                                AudioConversionException.ErrorType.IO_ERROR,
+                                e
+                        ));
+            } finally {
+                deleteQuietly(temp);
             }
+        }
 
-            int exitCode = process.waitFor();
+        return outputs;
+    }
 
-            if (exitCode != 0) {
-                throw new AudioConversionException(
-                        audioFile.getName(),
-                        AudioConversionException.ErrorType.FFMPEG_ERROR,
-                        "FFmpeg exit code: " + exitCode + "\n" + output.toString()
-                );
+    /**
+     * Deletes the temp files (and segment work directories) an interrupted conversion
+     * of this input left next to its outputs. Finished outputs are only ever moved
+     * into place whole, so they are kept.
+     */
+    public void removePartialOutputs(AudioFile audioFile, List<ConversionSettings> targets,
+                                     String outputPath) {
+        for (String outputFilename : buildOutputFilenames(audioFile, targets, outputPath)) {
+            if (outputFilename == null) {
+                continue;
             }
+            Path output = Paths.get(outputFilename).toAbsolutePath();
+            if (!Files.isDirectory(output.getParent())) {
+                continue;
+            }
+            String name = output.getFileName().toString();
+            String glob = "." + name + ".*" + PARTIAL_MARKER + "." + extensionOf(name)
+                    + "{," + SegmentedEncoder.WORK_DIR_SUFFIX + "}";
+            try (DirectoryStream<Path> partials = Files.newDirectoryStream(output.getParent(), glob)) {
+                for (Path partial : partials) {
+                    if (Files.isDirectory(partial, LinkOption.NOFOLLOW_LINKS)) {
+                        SegmentedEncoder.deleteRecursively(partial);
+                    } else {
+                        deleteQuietly(partial);
+                    }
+                }
+            } catch (IOException e) {
+                // Left for the next resume
+            }
+        }
+    }
 
-            // Notify listener of completion (simplified - no progress tracking)
-            if (listener != null) {
-                Progress progress = new Progress();
-                progress.out_time_ns = 1000000000L; // Dummy value
-                listener.progress(progress);
+    /**
+     * Hidden temp file next to the output that ffmpeg writes instead, keeping the
+     * extension last so ffmpeg still picks the right muxer.
+     */
+    private static Path tempFileFor(Path output) {
+        String name = output.getFileName().toString();
+        return output.resolveSibling("." + name + "." + Long.toHexString(ThreadLocalRandom.current().nextLong())
+                + PARTIAL_MARKER + "." + extensionOf(name));
+    }
+
+    private static Path prepareTempFile(AudioFile audioFile, Path output) throws AudioConversionException {
+        try {
+            Files.createDirectories(output.toAbsolutePath().getParent());
+        } catch (IOException e) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.IO_ERROR,
+                    e
+            );
+        }
+        return tempFileFor(output);
+    }
+
+    /**
+     * Moves finished temp files into place and records them in the output manifest.
+     */
+    private void finalizeOutputs(AudioFile audioFile, List<ConversionOutput> outputs, List<Path> temps)
+            throws AudioConversionException {
+        ConversionEvents.Finalize event = new ConversionEvents.Finalize();
+        event.begin();
+        long start = System.nanoTime();
+        long bytes = 0;
+        for (int i = 0; i < outputs.size(); i++) {
+            Path output = Paths.get(outputs.get(i).getOutputPath());
+            commitOutput(audioFile, temps.get(i), output);
+            recordOutput(audioFile, outputs.get(i));
+            try {
+                bytes += Files.size(output);
+            } catch (IOException e) {
+                // Only the byte count is off
+            }
+        }
+        metrics.recordFinalize(System.nanoTime() - start, bytes);
+        event.outputBytes = bytes;
+        event.commitFor(audioFile, outputs.stream().map(ConversionOutput::getSettings).collect(Collectors.toList()));
+    }
+
+    /**
+     * Moves a finished temp file over the output in one step, so the output is
+     * either the old file or the complete new one - never a truncated mix.
+     */
+    private void commitOutput(AudioFile audioFile, Path temp, Path output) throws AudioConversionException {
+        try {
+            try {
+                Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.IO_ERROR,
+                    e
+            );
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // A hidden leftover is removed by the next resume
+        }
+    }
+
+    private static String extensionOf(String filename) {
+        int lastDot = filename.lastIndexOf('.');
+        return lastDot > 0 ? filename.substring(lastDot + 1) : "";
+    }
+
+    private boolean isUpToDate(AudioFile audioFile, ConversionOutput output) {
+        if (!skipUpToDate) {
+            return false;
+        }
+        Path outputFile = Paths.get(output.getOutputPath());
+        return OutputManifest.forDirectory(outputFile.toAbsolutePath().getParent()).isCurrent(
+                outputFile, Paths.get(audioFile.getFilePath()),
+                output.getSettings().digest(), toolchain.getFfmpegVersion());
+    }
+
+    private void recordOutput(AudioFile audioFile, ConversionOutput output) {
+        Path outputFile = Paths.get(output.getOutputPath());
+        try {
+            OutputManifest.forDirectory(outputFile.toAbsolutePath().getParent()).record(
+                    outputFile, Paths.get(audioFile.getFilePath()),
+                    output.getSettings().digest(), toolchain.getFfmpegVersion());
+        } catch (IOException e) {
+            // Without a record the output is simply converted again next time
+        }
+    }
+
+    private static boolean isAborted(AudioConversionException e) {
+        return e.getErrorType() == AudioConversionException.ErrorType.CANCELLED
+                || e.getErrorType() == AudioConversionException.ErrorType.TIMEOUT;
+    }
+
+    private void runFfmpeg(AudioFile audioFile, List<ConversionOutput> outputs,
+                           ProgressListener listener, CancellationToken token)
+            throws AudioConversionException {
+        List<Path> temps = new ArrayList<>();
+        for (ConversionOutput output : outputs) {
+            temps.add(prepareTempFile(audioFile, Paths.get(output.getOutputPath())));
+        }
+        try {
+            // Build FFmpeg command manually using ProcessBuilder for correct argument order.
+            // Everything but the paths is precompiled; only the file names are spliced in.
+            List<String> command = new ArrayList<>(globalOptions);
+
+            // Input file
+            command.add("-i");
+            command.add(audioFile.getFilePath());
+
+            // Each output's options come right before its (temporary) file name
+            for (int i = 0; i < outputs.size(); i++) {
+                command.addAll(outputOptions(outputs.get(i).getSettings()));
+                command.add(temps.get(i).toString());
             }
 
+            runProcess(audioFile,
+                    outputs.stream().map(ConversionOutput::getSettings).collect(Collectors.toList()),
+                    command, listener, token);
+
+            finalizeOutputs(audioFile, outputs, temps);
+
         } catch (IOException | InterruptedException e) {
             throw new AudioConversionException(
                     audioFile.getName(),
                     AudioConversionException.ErrorType.FFMPEG_ERROR,
                     e
             );
+        } finally {
+            // Whatever was not moved into place is partial
+            temps.forEach(FFmpegService::deleteQuietly);
+        }
+    }
+
+    /**
+     * Runs one ffmpeg command line, streaming its -progress output to the listener.
+     * The process is watched for timeouts and stalls and is killed, with its
+     * children, when the token is cancelled.
+     */
+    void runProcess(AudioFile audioFile, List<ConversionSettings> targets, List<String> command,
+                    ProgressListener listener, CancellationToken token)
+            throws IOException, InterruptedException, AudioConversionException {
+        String fileName = audioFile.getName();
+        if (token.isCancelled()) {
+            throw new AudioConversionException(
+                    fileName,
+                    AudioConversionException.ErrorType.CANCELLED,
+                    "Cancelled before start"
+            );
+        }
+
+        // Execute command
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.redirectErrorStream(true);
+
+        ConversionEvents.ProcessStart startEvent = new ConversionEvents.ProcessStart();
+        ConversionEvents.Encode encodeEvent = new ConversionEvents.Encode();
+        startEvent.begin();
+        long spawnStart = System.nanoTime();
+        Process process = processBuilder.start();
+        long encodeStart = System.nanoTime();
+        metrics.recordSpawn(encodeStart - spawnStart);
+        startEvent.commitFor(audioFile, targets);
+        encodeEvent.begin();
+        ProcessWatchdog.Watch watch = watchdog.watch(process,
+                jobTimeoutSeconds * 1000, stallTimeoutSeconds * 1000);
+        token.attach(watch);
+
+        // Read output as it arrives: progress blocks go to the listener,
+        // the tail of everything else is kept for error reporting
+        OutputTail output = new OutputTail();
+        FFmpegProgressParser parser = new FFmpegProgressParser(progress -> {
+            watch.progress(progress.out_time_ns);
+            if (listener != null) {
+                listener.progress(progress);
+            }
+        }, (buffer, offset, length) -> {
+            output.appendLine(buffer, offset, length);
+            ffmpegLog.line(fileName, buffer, offset, length);
+        });
+
+        int exitCode;
+        boolean exited = false;
+        try {
+            try (InputStream in = process.getInputStream()) {
+                byte[] buffer = new byte[PROGRESS_BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    parser.feed(buffer, 0, read);
+                }
+                parser.finish();
+            } catch (IOException e) {
+                // The stream breaks when the watchdog kills the process
+                if (watch.getKillReason() == null) {
+                    throw e;
+                }
+            }
+            exitCode = process.waitFor();
+            exited = true;
+            metrics.recordEncode(System.nanoTime() - encodeStart);
+            encodeEvent.exitCode = exitCode;
+            encodeEvent.commitFor(audioFile, targets);
+        } catch (InterruptedException e) {
+            watch.kill(ProcessWatchdog.Reason.CANCELLED);
+            throw e;
+        } finally {
+            if (!exited) {
+                // Whatever went wrong, ffmpeg must not keep writing the temp output behind us
+                watch.destroy();
+                awaitExit(process);
+            }
+            token.detach(watch);
+            watchdog.unwatch(watch);
+        }
+
+        ProcessWatchdog.Reason reason = watch.getKillReason();
+        if (reason != null) {
+            throw new AudioConversionException(
+                    fileName,
+                    reason == ProcessWatchdog.Reason.CANCELLED
+                            ? AudioConversionException.ErrorType.CANCELLED
+                            : AudioConversionException.ErrorType.TIMEOUT,
+                    "FFmpeg " + reason.getDescription() + "\n" + output.toString()
+            );
+        }
+
+        if (exitCode != 0) {
+            throw new AudioConversionException(
+                    fileName,
+                    AudioConversionException.ErrorType.FFMPEG_ERROR,
+                    "FFmpeg exit code: " + exitCode + "\n" + output.toString()
+            );
+        }
+    }
+
+    private static void awaitExit(Process process) {
+        try {
+            process.waitFor(PROCESS_EXIT_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The output options for the settings, compiled on first use and then shared by
+     * every job with the same settings digest.
+     */
+    static List<String> outputOptions(ConversionSettings settings) {
+        return outputOptionsCache.computeIfAbsent(settings.digest(), digest -> {
+            List<String> options = new ArrayList<>();
+            addOutputOptions(options, settings);
+            return List.copyOf(options);
+        });
+    }
+
+    static void addOutputOptions(List<String> command, ConversionSettings settings) {
+        command.add("-c:a");
+        command.add(settings.getOutputFormat().getCodec());
+
+        command.add("-ac");
+        command.add(String.valueOf(settings.getChannels().getCount()));
+
+        command.add("-ar");
+        command.add(String.valueOf(settings.getSampleRate().getRate()));
+
+        // Bitrate settings - check mode and format
+        if (settings.getOutputFormat().supportsBitrate()) {
+            if (settings.getOutputFormat() == ConversionSettings.OutputFormat.MP3 &&
+                    settings.getBitrateMode() == ConversionSettings.BitrateMode.VARIABLE) {
+                // MP3 VBR mode - use -q:a (quality) instead of bitrate
+                command.add("-q:a");
+                command.add(String.valueOf(settings.getVbrQuality()));
+            } else {
+                // CBR mode or other formats - use bitrate
+                int bitrate = settings.getEffectiveBitrate();
+                command.add("-b:a");
+                command.add(bitrate + "k");
+            }
         }
     }
 
-    private String buildOutputFilename(AudioFile audioFile, ConversionSettings settings,
-                                       String outputPath) {
+    static String buildOutputFilename(AudioFile audioFile, ConversionSettings settings,
+                                      String outputPath) {
         String baseName = audioFile.getName();
         int lastDot = baseName.lastIndexOf('.');
         if (lastDot > 0) {
@@ -272,19 +754,165 @@ public class FFmpegService {
         return outputDir.resolve(baseName + "." + newExtension).toString();
     }
 
-    public String getAudioInfo(String filePath) throws AudioConversionException {
-        FFmpegProbeResult probeResult = probeFile(filePath);
+    /**
+     * Output file per target, claimed for this input. A name used by another input -
+     * in this batch, or recorded in the directory's manifest by an earlier run - is
+     * resolved by the collision policy; null means the output is skipped.
+     */
+    private List<String> buildOutputFilenames(AudioFile audioFile, List<ConversionSettings> targets,
+                                              String outputPath) {
+        String input = Paths.get(audioFile.getFilePath()).toAbsolutePath().toString();
+        List<String> outputFilenames = new ArrayList<>();
+        Set<String> usedNames = new HashSet<>();
+        for (ConversionSettings target : targets) {
+            String baseFilename = buildOutputFilename(audioFile, target, outputPath);
+            String outputFilename = baseFilename;
+            for (int n = 2; ; n++) {
+                // Two targets with the same extension would overwrite each other
+                if (!usedNames.contains(outputFilename)) {
+                    if (claimOutput(outputFilename, input)) {
+                        break;
+                    }
+                    if (collisionPolicy == CollisionPolicy.SKIP) {
+                        outputFilename = null;
+                        break;
+                    }
+                }
+                outputFilename = withSuffix(baseFilename, "_" + n);
+            }
+            if (outputFilename != null) {
+                usedNames.add(outputFilename);
+            }
+            outputFilenames.add(outputFilename);
+        }
+        return outputFilenames;
+    }
 
-        if (probeResult.getStreams().isEmpty()) {
-            return "No audio stream found";
+    private boolean claimOutput(String outputFilename, String input) {
+        Path output = Paths.get(outputFilename).toAbsolutePath();
+        String name = output.toString();
+        String owner = outputClaims.get(name);
+        if (owner != null) {
+            return owner.equals(input);
+        }
+        // Read outside the map, so no other claim waits on the manifest's disk I/O
+        if (!isFreeOnRecord(output, input)) {
+            return false;
+        }
+        owner = outputClaims.putIfAbsent(name, input);
+        if (owner != null) {
+            return owner.equals(input);
+        }
+        // Its owner may have recorded it and let go between the read and the claim
+        if (!isFreeOnRecord(output, input)) {
+            outputClaims.remove(name, input);
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isFreeOnRecord(Path output, String input) {
+        String recorded = OutputManifest.forDirectory(output.getParent()).ownerOf(output);
+        return recorded == null || recorded.equals(input);
+    }
+
+    /**
+     * Drops this input's claims once its job is over, however it ended: a committed
+     * output is found through its manifest from then on, and a failed or cancelled
+     * one is free again. Keeps the map from growing for the life of a watch daemon.
+     */
+    private void releaseClaims(AudioFile audioFile, List<String> outputFilenames) {
+        String input = Paths.get(audioFile.getFilePath()).toAbsolutePath().toString();
+        for (String outputFilename : outputFilenames) {
+            if (outputFilename != null) {
+                outputClaims.remove(Paths.get(outputFilename).toAbsolutePath().toString(), input);
+            }
+        }
+    }
+
+    private String withSuffix(String filename, String suffix) {
+        int lastDot = filename.lastIndexOf('.');
+        if (lastDot > 0) {
+            return filename.substring(0, lastDot) + suffix + filename.substring(lastDot);
+        }
+        return filename + suffix;
+    }
+
+    public AudioMetadata getMetadata(AudioFile audioFile) throws AudioConversionException {
+        String absolutePath = new File(audioFile.getFilePath()).getAbsolutePath();
+        return getMetadata(absolutePath, audioFile.getFileSize());
+    }
+
+    public AudioMetadata getMetadata(String filePath) throws AudioConversionException {
+        File file = new File(filePath);
+        return getMetadata(file.getAbsolutePath(), file.length());
+    }
+
+    private AudioMetadata getMetadata(String absolutePath, long size) throws AudioConversionException {
+        ConversionEvents.Probe event = new ConversionEvents.Probe();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            return lookupMetadata(absolutePath, size);
+        } finally {
+            metrics.recordProbe(System.nanoTime() - start);
+            event.commitFor(absolutePath, size);
+        }
+    }
+
+    private AudioMetadata lookupMetadata(String absolutePath, long size) throws AudioConversionException {
+        long lastModified = ProbeCache.lastModified(absolutePath);
+        AudioMetadata metadata = probeCache.get(absolutePath, size, lastModified);
+        if (metadata == null) {
+            // Parse the container header in-process; spawn ffprobe only if that fails
+            metadata = AudioHeaderReader.read(Paths.get(absolutePath));
+            if (metadata == null) {
+                metadata = toMetadata(probeFile(absolutePath));
+            }
+            probeCache.put(absolutePath, size, lastModified, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * Persists probe results gathered so far, e.g. at the end of a batch.
+     */
+    public void flushProbeCache() {
+        probeCache.flush();
+    }
+
+    /**
+     * Persists the up-to-date records of every output directory written so far.
+     */
+    public void flushManifests() {
+        OutputManifest.flushAll();
+    }
+
+    private AudioMetadata toMetadata(FFmpegProbeResult probeResult) {
+        FFmpegFormat format = probeResult.getFormat();
+        String formatName = format != null ? format.format_name : null;
+        double duration = format != null ? Math.max(format.duration, 0) : 0;
+
+        if (probeResult.getStreams() == null || probeResult.getStreams().isEmpty()) {
+            return new AudioMetadata(formatName, null, duration, 0, 0, 0, false);
         }
 
         FFmpegStream stream = probeResult.getStreams().get(0);
+        return new AudioMetadata(formatName, stream.codec_name, duration,
+                stream.sample_rate, stream.channels, stream.bit_rate, true);
+    }
+
+    public String getAudioInfo(String filePath) throws AudioConversionException {
+        AudioMetadata metadata = getMetadata(filePath);
+
+        if (!metadata.hasAudioStream()) {
+            return "No audio stream found";
+        }
 
-        String codecName = stream.codec_name != null ? stream.codec_name : "Unknown";
-        int sampleRate = stream.sample_rate;
-        int channels = stream.channels;
-        long bitRate = stream.bit_rate;
+        String codecName = metadata.getCodecName() != null ? metadata.getCodecName() : "Unknown";
+        int sampleRate = metadata.getSampleRate();
+        int channels = metadata.getChannels();
+        long bitRate = metadata.getBitRate();
 
         return String.format(
                 "Codec: %s, Sample Rate: %d Hz, Channels: %d, Bitrate: %d kbps",
@@ -294,4 +922,4 @@ public class FFmpegService {
                 bitRate / 1000
         );
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,266 @@
+package se233.audioconverter.service;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves the ffmpeg and ffprobe binaries once per JVM and records what they can do
+ * (version, audio encoders). The capability probe is persisted in
+ * ~/.audioconverter/toolchain.json keyed by binary path and mtime, so later runs only
+ * stat the two binaries instead of spawning ffmpeg again.
+ */
+public class FFmpegToolchain {
+    private static final Path CACHE_FILE = Paths.get(
+            System.getProperty("user.home"), ".audioconverter", "toolchain.json");
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    private static volatile FFmpegToolchain instance;
+
+    private final String ffmpegPath;
+    private final String ffprobePath;
+    private final BinaryInfo ffmpegInfo;
+    private final BinaryInfo ffprobeInfo;
+
+    /**
+     * Capabilities of one binary, as stored in the on-disk cache.
+     */
+    static class BinaryInfo {
+        String path;
+        long lastModified;
+        String version;
+        List<String> encoders = new ArrayList<>();
+    }
+
+    private FFmpegToolchain() throws IOException {
+        this.ffmpegPath = locate("ffmpeg");
+        this.ffprobePath = locate("ffprobe");
+
+        Map<String, BinaryInfo> cache = loadCache();
+        boolean dirty = false;
+
+        BinaryInfo ffmpeg = cached(cache, ffmpegPath);
+        if (ffmpeg == null) {
+            ffmpeg = probeFfmpeg(ffmpegPath);
+            cache.put(ffmpegPath, ffmpeg);
+            dirty = true;
+        }
+
+        BinaryInfo ffprobe = cached(cache, ffprobePath);
+        if (ffprobe == null) {
+            ffprobe = probeVersion(ffprobePath);
+            cache.put(ffprobePath, ffprobe);
+            dirty = true;
+        }
+
+        this.ffmpegInfo = ffmpeg;
+        this.ffprobeInfo = ffprobe;
+
+        if (dirty) {
+            saveCache(cache);
+        }
+    }
+
+    public static FFmpegToolchain getInstance() throws IOException {
+        FFmpegToolchain result = instance;
+        if (result == null) {
+            synchronized (FFmpegToolchain.class) {
+                result = instance;
+                if (result == null) {
+                    result = new FFmpegToolchain();
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    public String getFfmpegPath() {
+        return ffmpegPath;
+    }
+
+    public String getFfprobePath() {
+        return ffprobePath;
+    }
+
+    public String getFfmpegVersion() {
+        return ffmpegInfo.version;
+    }
+
+    public String getFfprobeVersion() {
+        return ffprobeInfo.version;
+    }
+
+    /**
+     * True if the encoder is available. An empty encoder list means the probe
+     * output could not be parsed, in which case every encoder is assumed present.
+     */
+    public boolean hasEncoder(String codec) {
+        return ffmpegInfo.encoders.isEmpty() || ffmpegInfo.encoders.contains(codec);
+    }
+
+    private static String locate(String binary) {
+        String os = System.getProperty("os.name").toLowerCase();
+        String executableName = os.contains("win") ? binary + ".exe" : binary;
+
+        String pathEnv = System.getenv("PATH");
+        if (pathEnv != null) {
+            for (String path : pathEnv.split(File.pathSeparator)) {
+                File file = new File(path, executableName);
+                if (file.exists() && file.canExecute()) {
+                    return file.getAbsolutePath();
+                }
+            }
+        }
+
+        if (os.contains("mac") || os.contains("nix") || os.contains("nux")) {
+            String[] commonPaths = {
+                    "/usr/local/bin/" + binary,
+                    "/usr/bin/" + binary,
+                    "/opt/homebrew/bin/" + binary
+            };
+            for (String path : commonPaths) {
+                File file = new File(path);
+                if (file.exists() && file.canExecute()) {
+                    return path;
+                }
+            }
+        } else if (os.contains("win")) {
+            String[] commonPaths = {
+                    "C:\\ffmpeg\\bin\\" + executableName,
+                    "C:\\Program Files\\ffmpeg\\bin\\" + executableName
+            };
+            for (String path : commonPaths) {
+                File file = new File(path);
+                if (file.exists()) {
+                    return path;
+                }
+            }
+        }
+
+        return executableName;
+    }
+
+    private static BinaryInfo cached(Map<String, BinaryInfo> cache, String path) {
+        BinaryInfo info = cache.get(path);
+        long lastModified = new File(path).lastModified();
+        if (info != null && lastModified != 0 && info.lastModified == lastModified) {
+            return info;
+        }
+        return null;
+    }
+
+    private static BinaryInfo probeVersion(String path) throws IOException {
+        BinaryInfo info = new BinaryInfo();
+        info.path = path;
+        info.lastModified = new File(path).lastModified();
+
+        List<String> lines = run(path, "-hide_banner", "-version");
+        if (lines.isEmpty()) {
+            throw new IOException("Could not run " + path);
+        }
+        // "ffmpeg version 6.1.1 Copyright (c) ..."
+        String[] tokens = lines.get(0).split("\\s+");
+        info.version = tokens.length > 2 && tokens[1].equals("version") ? tokens[2] : lines.get(0);
+        return info;
+    }
+
+    private static BinaryInfo probeFfmpeg(String path) throws IOException {
+        BinaryInfo info = probeVersion(path);
+
+        // " A....D libmp3lame    libmp3lame MP3 (MPEG audio layer 3) (codec mp3)"
+        // flag 1 is the media type
+        Set<String> encoders = new LinkedHashSet<>();
+        boolean inList = false;
+        for (String line : run(path, "-hide_banner", "-encoders")) {
+            String trimmed = line.trim();
+            if (!inList) {
+                inList = trimmed.startsWith("---");
+                continue;
+            }
+            String[] parts = trimmed.split("\\s+", 3);
+            if (parts.length < 2 || parts[0].length() != 6 || parts[0].charAt(0) != 'A') {
+                continue;
+            }
+            encoders.add(parts[1]);
+        }
+        info.encoders = new ArrayList<>(encoders);
+        return info;
+    }
+
+    private static List<String> run(String... command) throws IOException {
+        ProcessBuilder processBuilder = new ProcessBuilder(Arrays.asList(command));
+        processBuilder.redirectErrorStream(true);
+        Process process = processBuilder.start();
+
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+
+        try {
+            process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while probing " + command[0], e);
+        }
+        return lines;
+    }
+
+    private static Map<String, BinaryInfo> loadCache() {
+        if (!Files.isRegularFile(CACHE_FILE)) {
+            return new HashMap<>();
+        }
+        Type type = new TypeToken<Map<String, BinaryInfo>>() {}.getType();
+        try (Reader reader = Files.newBufferedReader(CACHE_FILE, StandardCharsets.UTF_8)) {
+            Map<String, BinaryInfo> cache = GSON.fromJson(reader, type);
+            return cache != null ? new HashMap<>(cache) : new HashMap<>();
+        } catch (IOException | RuntimeException e) {
+            // A corrupt cache is simply rebuilt
+            return new HashMap<>();
+        }
+    }
+
+    private static void saveCache(Map<String, BinaryInfo> cache) {
+        Path temp = null;
+        try {
+            Files.createDirectories(CACHE_FILE.getParent());
+            // Own temp name, so two JVMs starting together never write the same file
+            temp = Files.createTempFile(CACHE_FILE.getParent(), "toolchain", ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                GSON.toJson(cache, writer);
+            }
+            Files.move(temp, CACHE_FILE, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Cache is best effort - the next run will probe again
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+        }
+    }
+}
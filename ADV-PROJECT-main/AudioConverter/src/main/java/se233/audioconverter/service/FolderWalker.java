@@ -0,0 +1,182 @@
+package se233.audioconverter.service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Finds the audio files under folders, walking each subdirectory as its own
+ * fork/join task so wide or deep trees are listed by several threads at once.
+ * Files are handed to the sink as they are found, from whichever thread found
+ * them, so a caller can start using the first results long before a large tree
+ * has been walked. Directory symlinks are not followed, which also rules out cycles.
+ *
+ * Include and exclude globs use the java.nio glob syntax. A pattern containing '/'
+ * is matched against the path relative to the folder that was added; one without
+ * is matched against the file or directory name alone (so "*.flac" and "Live"
+ * work anywhere in the tree). An excluded directory is not entered at all.
+ */
+public class FolderWalker {
+    // Listing is mostly waiting on the file system, so more walkers than cores pays off
+    private static final ForkJoinPool WALK_POOL = new ForkJoinPool(
+            Math.max(4, Runtime.getRuntime().availableProcessors()));
+
+    private final Set<String> extensions;
+    private final List<Glob> includes;
+    private final List<Glob> excludes;
+
+    public FolderWalker(Collection<String> extensions, List<String> includes, List<String> excludes) {
+        this.extensions = extensions.stream()
+                .map(extension -> extension.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toSet());
+        this.includes = compile(includes);
+        this.excludes = compile(excludes);
+    }
+
+    /**
+     * Comma-separated globs as typed by the user; blanks are ignored.
+     */
+    public static List<String> parseGlobs(String text) {
+        List<String> globs = new ArrayList<>();
+        if (text != null) {
+            for (String glob : text.split(",")) {
+                if (!glob.isBlank()) {
+                    globs.add(glob.trim());
+                }
+            }
+        }
+        return globs;
+    }
+
+    /**
+     * Starts walking every folder and returns at once; the future completes when the
+     * walk is done, or given up because stopped returned true. Unreadable
+     * directories are skipped.
+     */
+    public CompletableFuture<Void> walk(List<Path> folders, Consumer<Path> sink, BooleanSupplier stopped) {
+        List<DirectoryTask> tasks = new ArrayList<>();
+        for (Path folder : folders) {
+            Path root = folder.toAbsolutePath().normalize();
+            tasks.add(new DirectoryTask(root, root, sink, stopped));
+        }
+        return CompletableFuture.runAsync(() -> ForkJoinTask.invokeAll(tasks), WALK_POOL);
+    }
+
+    /**
+     * Whether a file, given relative to the folder that was added, passes the
+     * extension filter and the globs.
+     */
+    boolean accepts(Path relative) {
+        if (!extensions.contains(extensionOf(relative.getFileName().toString()))) {
+            return false;
+        }
+        if (matchesAny(excludes, relative)) {
+            return false;
+        }
+        return includes.isEmpty() || matchesAny(includes, relative);
+    }
+
+    private static List<Glob> compile(List<String> patterns) {
+        List<Glob> globs = new ArrayList<>();
+        for (String pattern : patterns) {
+            globs.add(new Glob(pattern));
+        }
+        return globs;
+    }
+
+    private static boolean matchesAny(List<Glob> globs, Path relative) {
+        for (Glob glob : globs) {
+            if (glob.matches(relative)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String extensionOf(String name) {
+        int lastDot = name.lastIndexOf('.');
+        return lastDot > 0 ? name.substring(lastDot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    private static class Glob {
+        private final PathMatcher matcher;
+        private final boolean nameOnly;
+
+        Glob(String pattern) {
+            this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            this.nameOnly = !pattern.contains("/");
+        }
+
+        boolean matches(Path relative) {
+            return matcher.matches(nameOnly ? relative.getFileName() : relative);
+        }
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path root;
+        private final Path directory;
+        private final Consumer<Path> sink;
+        private final BooleanSupplier stopped;
+
+        DirectoryTask(Path root, Path directory, Consumer<Path> sink, BooleanSupplier stopped) {
+            this.root = root;
+            this.directory = directory;
+            this.sink = sink;
+            this.stopped = stopped;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    if (stopped.getAsBoolean()) {
+                        return;
+                    }
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    Path relative = root.relativize(entry);
+                    if (attributes.isDirectory()) {
+                        if (!matchesAny(excludes, relative)) {
+                            DirectoryTask task = new DirectoryTask(root, entry, sink, stopped);
+                            task.fork();
+                            subdirectories.add(task);
+                        }
+                    } else if ((attributes.isRegularFile() || attributes.isSymbolicLink() && Files.isRegularFile(entry))
+                            && accepts(relative)) {
+                        sink.accept(entry);
+                    }
+                }
+            } catch (IOException e) {
+                // Unreadable directory - skip it
+            } finally {
+                for (DirectoryTask task : subdirectories) {
+                    task.join();
+                }
+            }
+        }
+    }
+}
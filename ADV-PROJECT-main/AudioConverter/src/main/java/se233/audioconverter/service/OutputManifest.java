@@ -0,0 +1,207 @@
+package se233.audioconverter.service;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records, per output directory, what each output was made from: the input's size,
+ * mtime and (optionally) a fast content hash, the settings digest, the ffmpeg version
+ * and the output's own size and hash. A job whose output still matches all of these
+ * is up to date and can be skipped. Stored as .audioconverter-manifest.json in the
+ * output directory and written atomically on flush.
+ *
+ * The fast hash covers the file size plus its first and last 64 KB - enough to catch
+ * a replaced or truncated file without reading hours of audio.
+ */
+public class OutputManifest {
+    static final String FILE_NAME = ".audioconverter-manifest.json";
+    static final String HASH_INPUTS_PROPERTY = "audioconverter.manifest.hashInputs";
+    private static final int SAMPLE_BYTES = 64 * 1024;
+    private static final Gson GSON = new Gson();
+
+    private static final Map<Path, OutputManifest> OPEN = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(OutputManifest::flushAll, "manifest-flush"));
+    }
+
+    private final Path storeFile;
+    private final boolean hashInputs;
+    private Map<String, Entry> entries;
+    private boolean dirty;
+
+    static class Entry {
+        String input;
+        long inputSize;
+        long inputModified;
+        String inputHash;
+        String settings;
+        String encoder;
+        long outputSize;
+        String outputHash;
+
+        Entry() {
+            // For Gson
+        }
+    }
+
+    private OutputManifest(Path directory) {
+        this.storeFile = directory.resolve(FILE_NAME);
+        this.hashInputs = Boolean.getBoolean(HASH_INPUTS_PROPERTY);
+    }
+
+    public static OutputManifest forDirectory(Path directory) {
+        return OPEN.computeIfAbsent(directory.toAbsolutePath().normalize(), OutputManifest::new);
+    }
+
+    /**
+     * Whether the output was produced from this exact input with these settings and
+     * has not been touched since.
+     */
+    public synchronized boolean isCurrent(Path output, Path input, String settingsDigest, String encoder) {
+        Entry entry = load().get(output.getFileName().toString());
+        if (entry == null
+                || !input.toAbsolutePath().toString().equals(entry.input)
+                || !settingsDigest.equals(entry.settings)
+                || !encoder.equals(entry.encoder)) {
+            return false;
+        }
+        try {
+            BasicFileAttributes in = Files.readAttributes(input, BasicFileAttributes.class);
+            if (in.size() != entry.inputSize) {
+                return false;
+            }
+            long modified = in.lastModifiedTime().toMillis();
+            if (modified != entry.inputModified) {
+                // Touched (e.g. copied again) but maybe not changed - the hash decides
+                if (entry.inputHash == null || !entry.inputHash.equals(fastHash(input, in.size()))) {
+                    return false;
+                }
+                entry.inputModified = modified;
+                dirty = true;
+            }
+
+            BasicFileAttributes out = Files.readAttributes(output, BasicFileAttributes.class);
+            return out.size() == entry.outputSize
+                    && fastHash(output, out.size()).equals(entry.outputHash);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The input an existing output was recorded for, or null if unknown.
+     */
+    public synchronized String ownerOf(Path output) {
+        if (!Files.exists(output)) {
+            return null;
+        }
+        Entry entry = load().get(output.getFileName().toString());
+        return entry != null ? entry.input : null;
+    }
+
+    public synchronized void record(Path output, Path input, String settingsDigest, String encoder)
+            throws IOException {
+        BasicFileAttributes in = Files.readAttributes(input, BasicFileAttributes.class);
+        BasicFileAttributes out = Files.readAttributes(output, BasicFileAttributes.class);
+
+        Entry entry = new Entry();
+        entry.input = input.toAbsolutePath().toString();
+        entry.inputSize = in.size();
+        entry.inputModified = in.lastModifiedTime().toMillis();
+        entry.inputHash = hashInputs ? fastHash(input, in.size()) : null;
+        entry.settings = settingsDigest;
+        entry.encoder = encoder;
+        entry.outputSize = out.size();
+        entry.outputHash = fastHash(output, out.size());
+
+        load().put(output.getFileName().toString(), entry);
+        dirty = true;
+    }
+
+    public synchronized void flush() {
+        if (!dirty || entries == null) {
+            return;
+        }
+        try {
+            Path temp = storeFile.resolveSibling(FILE_NAME + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                GSON.toJson(entries, writer);
+            }
+            Files.move(temp, storeFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            // Best effort - the outputs are simply converted again next time
+        }
+    }
+
+    public static void flushAll() {
+        for (OutputManifest manifest : OPEN.values()) {
+            manifest.flush();
+        }
+    }
+
+    private Map<String, Entry> load() {
+        if (entries != null) {
+            return entries;
+        }
+        entries = new HashMap<>();
+        if (Files.isRegularFile(storeFile)) {
+            Type type = new TypeToken<Map<String, Entry>>() {}.getType();
+            try (Reader reader = Files.newBufferedReader(storeFile, StandardCharsets.UTF_8)) {
+                Map<String, Entry> stored = GSON.fromJson(reader, type);
+                if (stored != null) {
+                    entries.putAll(stored);
+                }
+            } catch (IOException | RuntimeException e) {
+                // A corrupt manifest only means everything is converted again
+                dirty = true;
+            }
+        }
+        return entries;
+    }
+
+    static String fastHash(Path file, long size) throws IOException {
+        Hasher hasher = Hashing.murmur3_128().newHasher().putLong(size);
+        ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_BYTES);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            readFully(channel, buffer, 0);
+            hasher.putBytes(buffer.flip());
+            if (size > SAMPLE_BYTES) {
+                buffer.clear();
+                readFully(channel, buffer, Math.max(SAMPLE_BYTES, size - SAMPLE_BYTES));
+                hasher.putBytes(buffer.flip());
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package se233.audioconverter.service;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keeps only the last few KB of a process's diagnostic output for error messages.
+ * Lines are copied into a fixed byte ring, so a chatty or broken encode costs the
+ * same memory as a quiet one and allocates nothing until the text is requested.
+ */
+class OutputTail {
+    static final String CAPACITY_PROPERTY = "audioconverter.error.tail.kb";
+    private static final int DEFAULT_CAPACITY_KB = 16;
+    private static final byte[] NEWLINE = {'\n'};
+
+    private final byte[] ring;
+    private long written;
+
+    OutputTail() {
+        this(Math.max(1, Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY_KB)) * 1024);
+    }
+
+    OutputTail(int capacity) {
+        this.ring = new byte[capacity];
+    }
+
+    void appendLine(byte[] buffer, int offset, int length) {
+        write(buffer, offset, length);
+        write(NEWLINE, 0, 1);
+    }
+
+    private void write(byte[] buffer, int offset, int length) {
+        if (length >= ring.length) {
+            offset += length - ring.length;
+            length = ring.length;
+        }
+        int position = (int) (written % ring.length);
+        int first = Math.min(length, ring.length - position);
+        System.arraycopy(buffer, offset, ring, position, first);
+        System.arraycopy(buffer, offset + first, ring, 0, length - first);
+        written += length;
+    }
+
+    boolean isEmpty() {
+        return written == 0;
+    }
+
+    /**
+     * The retained output, starting at the first complete line when older output
+     * has been overwritten.
+     */
+    @Override
+    public String toString() {
+        int size = (int) Math.min(written, ring.length);
+        byte[] bytes = new byte[size];
+        int start = (int) ((written - size) % ring.length);
+        int first = Math.min(size, ring.length - start);
+        System.arraycopy(ring, start, bytes, 0, first);
+        System.arraycopy(ring, 0, bytes, first, size - first);
+
+        if (written <= ring.length) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        int from = 0;
+        while (from < size && bytes[from] != '\n') {
+            from++;
+        }
+        from = Math.min(from + 1, size);
+        return "... (" + (written - size + from) + " earlier bytes omitted)\n"
+                + new String(bytes, from, size - from, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,170 @@
+package se233.audioconverter.service;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import se233.audioconverter.model.AudioMetadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Two-level cache of probe results: a bounded in-memory LRU in front of a Gson store
+ * in ~/.audioconverter/probe-cache.json. Entries are keyed by absolute path and only
+ * valid while the file keeps the same size and mtime, so edited files are re-probed.
+ */
+public class ProbeCache {
+    private static final Path DEFAULT_FILE = Paths.get(
+            System.getProperty("user.home"), ".audioconverter", "probe-cache.json");
+    private static final int MEMORY_CAPACITY = 4096;
+    private static final int DISK_CAPACITY = 200_000;
+    private static final Gson GSON = new Gson();
+
+    private static volatile ProbeCache instance;
+
+    private final Path storeFile;
+    private final Map<String, Entry> memory;
+    private Map<String, Entry> disk;
+    private boolean dirty;
+
+    static class Entry {
+        long size;
+        long lastModified;
+        AudioMetadata metadata;
+
+        Entry() {
+            // For Gson
+        }
+
+        Entry(long size, long lastModified, AudioMetadata metadata) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.metadata = metadata;
+        }
+
+        boolean matches(long size, long lastModified) {
+            return this.size == size && this.lastModified == lastModified;
+        }
+    }
+
+    public ProbeCache(Path storeFile) {
+        this.storeFile = storeFile;
+        this.memory = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > MEMORY_CAPACITY;
+            }
+        };
+    }
+
+    public static ProbeCache getInstance() {
+        ProbeCache result = instance;
+        if (result == null) {
+            synchronized (ProbeCache.class) {
+                result = instance;
+                if (result == null) {
+                    result = new ProbeCache(DEFAULT_FILE);
+                    Runtime.getRuntime().addShutdownHook(new Thread(result::flush, "probe-cache-flush"));
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the cached metadata, or null if the file is unknown or has changed.
+     */
+    public synchronized AudioMetadata get(String absolutePath, long size, long lastModified) {
+        Entry entry = memory.get(absolutePath);
+        if (entry == null) {
+            entry = loadDisk().get(absolutePath);
+            if (entry != null) {
+                memory.put(absolutePath, entry);
+            }
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.matches(size, lastModified)) {
+            invalidate(absolutePath);
+            return null;
+        }
+        return entry.metadata;
+    }
+
+    public synchronized void put(String absolutePath, long size, long lastModified,
+                                 AudioMetadata metadata) {
+        Entry entry = new Entry(size, lastModified, metadata);
+        memory.put(absolutePath, entry);
+        loadDisk().put(absolutePath, entry);
+        dirty = true;
+    }
+
+    public synchronized void invalidate(String absolutePath) {
+        memory.remove(absolutePath);
+        if (loadDisk().remove(absolutePath) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the disk level if anything changed. The store is replaced atomically,
+     * so a crash mid-write leaves the previous version intact.
+     */
+    public synchronized void flush() {
+        if (!dirty || disk == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(storeFile.getParent());
+            Path temp = storeFile.resolveSibling(storeFile.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                GSON.toJson(disk, writer);
+            }
+            Files.move(temp, storeFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            // Cache is best effort - entries are simply probed again next run
+        }
+    }
+
+    public static long lastModified(String absolutePath) {
+        return new File(absolutePath).lastModified();
+    }
+
+    private Map<String, Entry> loadDisk() {
+        if (disk != null) {
+            return disk;
+        }
+        disk = new LinkedHashMap<>(1024, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > DISK_CAPACITY;
+            }
+        };
+        if (Files.isRegularFile(storeFile)) {
+            Type type = new TypeToken<Map<String, Entry>>() {}.getType();
+            try (Reader reader = Files.newBufferedReader(storeFile, StandardCharsets.UTF_8)) {
+                Map<String, Entry> stored = GSON.fromJson(reader, type);
+                if (stored != null) {
+                    disk.putAll(stored);
+                }
+            } catch (IOException | RuntimeException e) {
+                // A corrupt store is simply rebuilt
+                dirty = true;
+            }
+        }
+        return disk;
+    }
+}
@@ -0,0 +1,129 @@
+package se233.audioconverter.service;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Kills ffmpeg processes that run past their wall-clock budget or stop making progress,
+ * so one corrupt input cannot hold a worker slot forever. A single daemon thread checks
+ * all watched processes once a second.
+ */
+public class ProcessWatchdog {
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    public enum Reason {
+        CANCELLED("cancelled"),
+        TIMEOUT("exceeded its time limit"),
+        STALLED("stopped making progress");
+
+        private final String description;
+
+        Reason(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    private static final ProcessWatchdog INSTANCE = new ProcessWatchdog();
+
+    private final Set<Watch> watches = ConcurrentHashMap.newKeySet();
+
+    private ProcessWatchdog() {
+        ScheduledExecutorService checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ffmpeg-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checker.scheduleWithFixedDelay(this::check, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static ProcessWatchdog getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts watching a process. A limit of 0 disables that check.
+     */
+    public Watch watch(Process process, long timeoutMillis, long stallMillis) {
+        Watch watch = new Watch(process, timeoutMillis, stallMillis);
+        watches.add(watch);
+        return watch;
+    }
+
+    public void unwatch(Watch watch) {
+        watches.remove(watch);
+    }
+
+    private void check() {
+        long now = System.nanoTime();
+        for (Watch watch : watches) {
+            if (!watch.process.isAlive()) {
+                watches.remove(watch);
+            } else if (watch.timeoutNanos > 0 && now - watch.startNanos > watch.timeoutNanos) {
+                watch.kill(Reason.TIMEOUT);
+            } else if (watch.stallNanos > 0 && now - watch.lastProgressNanos > watch.stallNanos) {
+                watch.kill(Reason.STALLED);
+            }
+        }
+    }
+
+    public static final class Watch {
+        private final Process process;
+        private final long startNanos = System.nanoTime();
+        private final long timeoutNanos;
+        private final long stallNanos;
+        private volatile long lastProgressNanos = startNanos;
+        private volatile long lastOutTime = Long.MIN_VALUE;
+        private volatile Reason killReason;
+
+        private Watch(Process process, long timeoutMillis, long stallMillis) {
+            this.process = process;
+            this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            this.stallNanos = TimeUnit.MILLISECONDS.toNanos(stallMillis);
+        }
+
+        /**
+         * Called for every progress block; only an advancing out_time counts as progress.
+         */
+        public void progress(long outTimeNanos) {
+            if (outTimeNanos > lastOutTime) {
+                lastOutTime = outTimeNanos;
+                lastProgressNanos = System.nanoTime();
+            }
+        }
+
+        /**
+         * Destroys the process and anything it spawned. The first reason wins.
+         */
+        public void kill(Reason reason) {
+            if (killReason == null) {
+                killReason = reason;
+            }
+            destroy();
+        }
+
+        /**
+         * Destroys the process and anything it spawned without giving a reason, for
+         * a caller that is already failing for one of its own.
+         */
+        public void destroy() {
+            // Stop the parent first so it cannot spawn replacements, then the
+            // children it had; once it is dead they are no longer its descendants
+            List<ProcessHandle> children = process.descendants().collect(Collectors.toList());
+            process.destroyForcibly();
+            children.forEach(ProcessHandle::destroyForcibly);
+        }
+
+        public Reason getKillReason() {
+            return killReason;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package se233.audioconverter.service;
+
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.AudioMetadata;
+import se233.audioconverter.model.ConversionSettings;
+import net.bramp.ffmpeg.progress.Progress;
+import net.bramp.ffmpeg.progress.ProgressListener;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+
+/**
+ * Encodes one long input as several time ranges in parallel and joins the pieces with
+ * the concat demuxer (-c copy).
+ *
+ * Joins are sample-accurate: every range starts on a grid point that is a whole number
+ * of input samples, output samples and microseconds, decodes a short pre-roll so the
+ * decoder and resampler are warmed up, and is then trimmed by output sample count.
+ * Only WAV targets are split. Independently encoded MP3/AAC pieces each carry encoder
+ * delay and padding, which would leave gaps at every join, and a stream-copied FLAC
+ * join keeps the first piece's STREAMINFO, so its length and MD5 would be wrong.
+ *
+ * The trim counts from where the -ss input seek lands, so that has to be exactly the
+ * requested sample. It is for PCM and FLAC inputs, whose timestamps are exact and
+ * whose decoders have no delay; MP3/AAC inputs seek by packet and carry decoder delay,
+ * so they are always converted in one piece.
+ *
+ * The ranges run on the ConversionScheduler that runs the job. The job's own thread
+ * takes every range no idle worker has picked up, so a split file never runs more
+ * ffmpeg processes than the scheduler allows, and never waits on ranges stuck in
+ * the queue behind other jobs.
+ *
+ * The pieces go in a work directory named after the output's hidden temp file, so an
+ * encode cut short by a crash leaves them where removePartialOutputs sweeps them up.
+ */
+class SegmentedEncoder {
+    static final String THRESHOLD_PROPERTY = "audioconverter.segment.threshold";
+    private static final double DEFAULT_THRESHOLD_SECONDS = 30 * 60;
+    private static final double MIN_SEGMENT_SECONDS = 5 * 60;
+    private static final double PREROLL_SECONDS = 1.0;
+    static final String WORK_DIR_SUFFIX = ".segments";
+
+    private final FFmpegService service;
+    private final String ffmpegPath;
+    private final double thresholdSeconds;
+
+    SegmentedEncoder(FFmpegService service, String ffmpegPath) {
+        this.service = service;
+        this.ffmpegPath = ffmpegPath;
+        this.thresholdSeconds = Double.parseDouble(System.getProperty(
+                THRESHOLD_PROPERTY, String.valueOf(DEFAULT_THRESHOLD_SECONDS)));
+    }
+
+    boolean shouldSegment(ConversionSettings settings, AudioMetadata metadata) {
+        ConversionScheduler scheduler = ConversionScheduler.current();
+        return scheduler != null && scheduler.getConcurrency() > 1
+                && settings.getOutputFormat() == ConversionSettings.OutputFormat.WAV
+                && metadata != null
+                && hasExactSeeking(metadata.getCodecName())
+                && metadata.getSampleRate() > 0
+                && metadata.getDuration() >= thresholdSeconds;
+    }
+
+    private static boolean hasExactSeeking(String codec) {
+        return codec != null && (codec.startsWith("pcm_") || codec.equals("flac"));
+    }
+
+    void encode(AudioFile audioFile, ConversionSettings settings, AudioMetadata metadata,
+                String outputFilename, ProgressListener listener, CancellationToken token)
+            throws AudioConversionException {
+        int outRate = settings.getSampleRate().getRate();
+        int inRate = metadata.getSampleRate();
+        long totalSamples = Math.round(metadata.getDuration() * outRate);
+        ConversionScheduler scheduler = ConversionScheduler.current();
+
+        int count = (int) Math.max(2, Math.min(scheduler.getConcurrency(),
+                Math.floor(metadata.getDuration() / MIN_SEGMENT_SECONDS)));
+        long segmentSamples = (totalSamples + count - 1) / count;
+
+        // Grid where a start time is whole in input samples, output samples and microseconds
+        long grid = gcd(gcd(inRate, outRate), 1_000_000L);
+
+        Path outputPath = Paths.get(outputFilename);
+        Path workDir = null;
+        try {
+            // The output name is already a unique hidden temp name
+            workDir = Files.createDirectory(outputPath.resolveSibling(outputPath.getFileName() + WORK_DIR_SUFFIX));
+            String extension = settings.getOutputFormat().getExtension();
+
+            List<Path> pieces = new ArrayList<>();
+            List<List<String>> commands = new ArrayList<>();
+            for (long start = 0; start < totalSamples; start += segmentSamples) {
+                Path piece = workDir.resolve(String.format("part-%03d.%s", pieces.size(), extension));
+                boolean last = start + segmentSamples >= totalSamples;
+                commands.add(segmentCommand(audioFile, settings, start, last ? -1 : segmentSamples,
+                        outRate, grid, piece));
+                pieces.add(piece);
+            }
+
+            runSegments(scheduler, audioFile, settings, commands, segmentSamples, outRate, listener, token.child());
+
+            Path list = workDir.resolve("segments.txt");
+            StringBuilder entries = new StringBuilder();
+            for (Path piece : pieces) {
+                entries.append("file '")
+                        .append(piece.toAbsolutePath().toString().replace("'", "'\\''"))
+                        .append("'\n");
+            }
+            Files.write(list, entries.toString().getBytes(StandardCharsets.UTF_8));
+
+            List<String> concat = new ArrayList<>();
+            concat.add(ffmpegPath);
+            concat.add("-y");
+            concat.add("-v");
+            concat.add("error");
+            concat.add("-nostats");
+            concat.add("-progress");
+            concat.add("pipe:1");
+            concat.add("-f");
+            concat.add("concat");
+            concat.add("-safe");
+            concat.add("0");
+            concat.add("-i");
+            concat.add(list.toString());
+            concat.add("-c");
+            concat.add("copy");
+            concat.add(outputFilename);
+            // Progress output keeps the stall watchdog fed during long joins
+            service.runProcess(audioFile, List.of(settings), concat, null, token);
+
+            if (listener != null) {
+                Progress done = new Progress();
+                done.out_time_ns = Math.round(metadata.getDuration() * 1_000_000_000L);
+                done.status = Progress.Status.END;
+                listener.progress(done);
+            }
+
+        } catch (IOException e) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.IO_ERROR,
+                    e
+            );
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.FFMPEG_ERROR,
+                    e
+            );
+        } finally {
+            deleteRecursively(workDir);
+        }
+    }
+
+    private List<String> segmentCommand(AudioFile audioFile, ConversionSettings settings,
+                                        long startSample, long lengthSamples, int outRate,
+                                        long grid, Path piece) {
+        // Pre-roll start, rounded down onto the shared grid
+        long startTicks = (long) Math.floor((double) startSample * grid / outRate - PREROLL_SECONDS * grid);
+        startTicks = Math.max(startTicks, 0);
+        long prerollStartSample = startTicks * (outRate / grid);
+        long trimFrom = startSample - prerollStartSample;
+
+        StringBuilder filter = new StringBuilder("aresample=").append(outRate)
+                .append(",atrim=start_sample=").append(trimFrom);
+        if (lengthSamples > 0) {
+            filter.append(":end_sample=").append(trimFrom + lengthSamples);
+        }
+        filter.append(",asetpts=PTS-STARTPTS");
+
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegPath);
+        command.add("-y");
+        command.add("-v");
+        command.add("error");
+        command.add("-nostats");
+        command.add("-progress");
+        command.add("pipe:1");
+        if (startTicks > 0) {
+            command.add("-ss");
+            command.add(startTicks * (1_000_000L / grid) + "us");
+        }
+        command.add("-i");
+        command.add(audioFile.getFilePath());
+        command.add("-af");
+        command.add(filter.toString());
+        command.addAll(FFmpegService.outputOptions(settings));
+        command.add(piece.toString());
+        return command;
+    }
+
+    private void runSegments(ConversionScheduler scheduler, AudioFile audioFile, ConversionSettings settings, List<List<String>> commands,
+                             long segmentSamples, int outRate, ProgressListener listener,
+                             CancellationToken token)
+            throws AudioConversionException, InterruptedException {
+        // Each range reports its own out_time; the sum is the file's progress
+        AtomicLongArray segmentTimes = new AtomicLongArray(commands.size());
+        long segmentNanos = segmentSamples * 1_000_000_000L / outRate;
+        Progress aggregate = new Progress();
+
+        List<FutureTask<Void>> ranges = new ArrayList<>();
+        for (int i = 0; i < commands.size(); i++) {
+            final int index = i;
+            List<String> command = commands.get(i);
+            ranges.add(new FutureTask<>(() -> {
+                try {
+                    service.runProcess(audioFile, List.of(settings), command, progress -> {
+                        segmentTimes.set(index, Math.min(progress.out_time_ns, segmentNanos));
+                        if (listener != null) {
+                            synchronized (aggregate) {
+                                long total = 0;
+                                for (int s = 0; s < segmentTimes.length(); s++) {
+                                    total += segmentTimes.get(s);
+                                }
+                                aggregate.out_time_ns = total;
+                                aggregate.status = Progress.Status.CONTINUE;
+                                listener.progress(aggregate);
+                            }
+                        }
+                    }, token);
+                } catch (AudioConversionException e) {
+                    // One failed range makes the rest pointless
+                    if (e.getErrorType() != AudioConversionException.ErrorType.CANCELLED) {
+                        token.cancel();
+                    }
+                    throw e;
+                }
+                return null;
+            }));
+        }
+
+        for (FutureTask<Void> range : ranges) {
+            try {
+                scheduler.execute(range);
+            } catch (RejectedExecutionException e) {
+                // Shutting down; the loop below runs the range here
+            }
+        }
+        // Run whatever no worker has taken yet; a range already started is not run again
+        for (FutureTask<Void> range : ranges) {
+            scheduler.remove(range);
+            range.run();
+        }
+
+        AudioConversionException failure = null;
+        for (FutureTask<Void> range : ranges) {
+            try {
+                range.get();
+            } catch (ExecutionException e) {
+                AudioConversionException error = e.getCause() instanceof AudioConversionException
+                        ? (AudioConversionException) e.getCause()
+                        : new AudioConversionException(audioFile.getName(),
+                                AudioConversionException.ErrorType.FFMPEG_ERROR, e.getCause());
+                // Report the range that actually failed, not the siblings it cancelled
+                if (failure == null || (failure.getErrorType() == AudioConversionException.ErrorType.CANCELLED
+                        && error.getErrorType() != AudioConversionException.ErrorType.CANCELLED)) {
+                    failure = error;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    static void deleteRecursively(Path dir) {
+        if (dir == null) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    // Leftover temp files are harmless
+                }
+            });
+        } catch (IOException e) {
+            // Leftover temp files are harmless
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package se233.audioconverter.service;
+
+import javax.management.ConstructorParameters;
+
+/**
+ * Point-in-time summary of one timing histogram, in milliseconds. Shown by JMX
+ * clients as a composite attribute.
+ */
+public class TimingSnapshot {
+    private final long count;
+    private final double meanMillis;
+    private final double p50Millis;
+    private final double p90Millis;
+    private final double p99Millis;
+    private final double maxMillis;
+    private final double totalSeconds;
+
+    @ConstructorParameters({"count", "meanMillis", "p50Millis", "p90Millis", "p99Millis", "maxMillis", "totalSeconds"})
+    public TimingSnapshot(long count, double meanMillis, double p50Millis, double p90Millis,
+                          double p99Millis, double maxMillis, double totalSeconds) {
+        this.count = count;
+        this.meanMillis = meanMillis;
+        this.p50Millis = p50Millis;
+        this.p90Millis = p90Millis;
+        this.p99Millis = p99Millis;
+        this.maxMillis = maxMillis;
+        this.totalSeconds = totalSeconds;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+
+    public double getP50Millis() {
+        return p50Millis;
+    }
+
+    public double getP90Millis() {
+        return p90Millis;
+    }
+
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+
+    public double getTotalSeconds() {
+        return totalSeconds;
+    }
+}